@@ -0,0 +1,97 @@
+package ch.uzh.ifi.hase.soprafs21.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DTOMapperBenchmark
+ * Measures the mapping between the internal and the API representation of a user
+ * and the JSON serialization of the user list returned by GET /users.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DTOMapperBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int users;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private User user;
+
+    private UserPostDTO userPostDTO;
+
+    private List<User> entities;
+
+    private List<UserGetNoTokenDTO> userGetNoTokenDTOs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        user = newUser(1);
+
+        userPostDTO = new UserPostDTO();
+        userPostDTO.setName("Firstname Lastname");
+        userPostDTO.setUsername("firstname@lastname");
+        userPostDTO.setPassword("password");
+
+        entities = new ArrayList<>(users);
+        userGetNoTokenDTOs = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            User entity = newUser(i);
+            entities.add(entity);
+            userGetNoTokenDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetNoTokenDTO(entity));
+        }
+    }
+
+    @Benchmark
+    public User convertUserPostDTOtoEntity() {
+        return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    }
+
+    @Benchmark
+    public UserGetDTO convertEntityToUserGetDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    }
+
+    @Benchmark
+    public List<UserGetNoTokenDTO> convertUserList() {
+        List<UserGetNoTokenDTO> converted = new ArrayList<>(entities.size());
+        for (User entity : entities) {
+            converted.add(DTOMapper.INSTANCE.convertEntityToUserGetNoTokenDTO(entity));
+        }
+        return converted;
+    }
+
+    @Benchmark
+    public byte[] serializeUserList() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(userGetNoTokenDTOs);
+    }
+
+    private static User newUser(int i) {
+        User user = new User();
+        user.setId((long) i);
+        user.setName("Firstname Lastname " + i);
+        user.setUsername("user" + i);
+        user.setToken("token" + i);
+        user.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+        user.setCreationDate(LocalDateTime.of(2021, 1, 1, 12, 0));
+        user.setBirthDate("01-01-2000");
+        return user;
+    }
+}
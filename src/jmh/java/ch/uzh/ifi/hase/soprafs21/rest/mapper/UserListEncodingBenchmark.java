@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs21.rest.mapper;
+
+import ch.uzh.ifi.hase.soprafs21.config.EncodingConfig;
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * UserListEncodingBenchmark
+ * Measures the serialization of the user list returned by GET /users in every encoding a client can ask for,
+ * with and without gzip. The size of the encoded list (the bytes on the wire) is reported as the bytes counter.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserListEncodingBenchmark {
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    @Param({"false", "true"})
+    private boolean gzip;
+
+    private ObjectMapper objectMapper;
+
+    private List<UserGetNoTokenDTO> userGetNoTokenDTOs;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        switch (format) {
+            case "smile":
+                objectMapper = new ObjectMapper(EncodingConfig.createSmileFactory());
+                break;
+            case "cbor":
+                objectMapper = new ObjectMapper(new CBORFactory());
+                break;
+            default:
+                objectMapper = new ObjectMapper();
+        }
+
+        userGetNoTokenDTOs = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            userGetNoTokenDTOs.add(new UserGetNoTokenDTO((long) i, "Firstname Lastname " + i, "user" + i,
+                    i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE, LocalDateTime.of(2021, 1, 1, 12, 0), "01-01-2000"));
+        }
+
+    }
+
+    @Benchmark
+    public byte[] encode(EncodedSize size) throws IOException {
+        byte[] encoded = write();
+        size.bytes = encoded.length;
+        return encoded;
+    }
+
+    private byte[] write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            objectMapper.writeValue(out, userGetNoTokenDTOs);
+        }
+        return bytes.toByteArray();
+    }
+
+    // reported next to the time of every iteration; the size is the same for every invocation
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+
+        public long bytes;
+    }
+}
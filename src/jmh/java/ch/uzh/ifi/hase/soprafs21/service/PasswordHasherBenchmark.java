@@ -0,0 +1,48 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PasswordHasherBenchmark
+ * Measures how many password checks per second one core can do for a given cost factor.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(1)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    @Param({"10000", "120000", "310000"})
+    private int iterations;
+
+    private PasswordHasher passwordHasher;
+
+    private String hash;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        passwordHasher = new PasswordHasher(iterations, 1, 16);
+        hash = passwordHasher.hash("password");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        passwordHasher.shutdown();
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return passwordHasher.verify("password", hash);
+    }
+
+    @Benchmark
+    public String hash() {
+        return passwordHasher.hash("password");
+    }
+}
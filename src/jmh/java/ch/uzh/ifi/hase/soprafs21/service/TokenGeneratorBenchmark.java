@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenGeneratorBenchmark
+ * Compares the token generation of createUser with UUID.randomUUID() under concurrent registrations.
+ * Run with: ./gradlew jmh (the gc profiler reports the allocated bytes per token)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TokenGeneratorBenchmark {
+
+    @Benchmark
+    public String randomUUID() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String tokenGenerator() {
+        return TokenGenerator.nextToken();
+    }
+}
@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserSearchIndexBenchmark
+ * Measures prefix and typo tolerant searches in an index filled with the given number of users.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserSearchIndexBenchmark {
+
+    private static final String[] FIRST_NAMES = {"ada", "alan", "grace", "linus", "barbara", "edsger", "donald", "margaret"};
+
+    private static final String[] LAST_NAMES = {"lovelace", "turing", "hopper", "torvalds", "liskov", "dijkstra", "knuth", "hamilton"};
+
+    @Param({"1000000"})
+    private int users;
+
+    private UserSearchIndex userSearchIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        userSearchIndex = new UserSearchIndex();
+        for (int i = 0; i < users; i++) {
+            String firstName = FIRST_NAMES[i % FIRST_NAMES.length];
+            String lastName = LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length];
+            userSearchIndex.put(i, firstName + "." + lastName + i, firstName + " " + lastName + " " + i);
+        }
+    }
+
+    @Benchmark
+    public List<Long> searchPrefix() {
+        return userSearchIndex.search("grace.hopper" + ThreadLocalRandom.current().nextInt(users / 10), 10, false);
+    }
+
+    @Benchmark
+    public List<Long> searchFuzzy() {
+        return userSearchIndex.search("grace.hoper" + ThreadLocalRandom.current().nextInt(users / 10), 10, true);
+    }
+
+    @Benchmark
+    public List<Long> searchFuzzyNoMatch() {
+        return userSearchIndex.search("zzace.hopper", 10, true);
+    }
+}
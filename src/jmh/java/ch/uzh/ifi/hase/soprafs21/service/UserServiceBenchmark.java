@@ -0,0 +1,151 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.Application;
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserServiceBenchmark
+ * Measures the UserService hot paths against a real application context with an in-memory H2 database
+ * that is filled with the given number of users.
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private static final int INSERT_BATCH = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    private int users;
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    private UserRepo userRepo;
+
+    private TransactionTemplate readWriteTransaction;
+
+    private List<Long> ids;
+
+    private final AtomicLong registrations = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+                        "spring.h2.console.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+        userService = context.getBean(UserService.class);
+        userRepo = context.getBean("userRepository", UserRepo.class);
+        readWriteTransaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        // all seeded users share one hash, hashing each of them would dominate the setup
+        String password = context.getBean(PasswordHasher.class).hash("password");
+
+        ids = new ArrayList<>(users);
+        List<User> batch = new ArrayList<>(INSERT_BATCH);
+        for (int i = 0; i < users; i++) {
+            batch.add(newUser("user" + i, password));
+            if (batch.size() == INSERT_BATCH || i == users - 1) {
+                for (User saved : userRepo.saveAll(batch)) {
+                    ids.add(saved.getId());
+                }
+                userRepo.flush();
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<User> getUsers() {
+        return userService.getUsers();
+    }
+
+    // the same query in a read-write transaction, as all UserService methods used to run
+    @Benchmark
+    public List<User> getUsersReadWrite() {
+        return readWriteTransaction.execute(status -> userRepo.findAll());
+    }
+
+    // the user list as GET /users returns it: entities mapped with the DTOMapper ...
+    @Benchmark
+    public List<UserGetNoTokenDTO> getUserListFromEntities() {
+        List<User> entities = userService.getUsers();
+        List<UserGetNoTokenDTO> userGetNoTokenDTOs = new ArrayList<>(entities.size());
+        for (User entity : entities) {
+            userGetNoTokenDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetNoTokenDTO(entity));
+        }
+        return userGetNoTokenDTOs;
+    }
+
+    // ... and selected directly into DTOs by the projection query
+    @Benchmark
+    public List<UserGetNoTokenDTO> getUserSummaries() {
+        return userService.getUserSummaries();
+    }
+
+    @Benchmark
+    public User getUser() {
+        return userService.getUser(ids.get(ThreadLocalRandom.current().nextInt(ids.size())));
+    }
+
+    // every login is sampled: the latency percentiles (p50, p99) show how the lookup scales, not only the mean
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public User checkLoginCredentials() {
+        User login = new User();
+        login.setUsername("user" + ThreadLocalRandom.current().nextInt(users));
+        login.setPassword("password");
+        return userService.checkLoginCredentials(login);
+    }
+
+    @Benchmark
+    public User createUser() {
+        User newUser = new User();
+        long registration = registrations.incrementAndGet();
+        newUser.setName("new name " + registration);
+        newUser.setUsername("new" + registration);
+        newUser.setPassword("password");
+        return userService.createUser(newUser);
+    }
+
+    private static User newUser(String username, String password) {
+        User user = new User();
+        user.setName("name of " + username);
+        user.setUsername(username);
+        user.setPassword(password);
+        user.setToken(username + "-token");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setCreationDate(LocalDateTime.of(2021, 1, 1, 12, 0));
+        return user;
+    }
+}
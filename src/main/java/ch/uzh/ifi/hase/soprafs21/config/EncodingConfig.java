@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Encoding Configuration
+ * Besides JSON, clients can ask for the user payloads in a binary encoding with the Accept header:
+ * application/cbor or application/x-jackson-smile. Spring registers both converters since the Jackson
+ * dataformats are on the classpath; JSON stays the default.
+ * The Smile converter is replaced by one that also shares repeated string values, so the status
+ * of the users in a list (ONLINE/OFFLINE) is written once and then only referenced.
+ * Responses of all three types are gzip compressed by the server, see server.compression.*.
+ */
+@Configuration
+public class EncodingConfig implements WebMvcConfigurer {
+
+    public static SmileFactory createSmileFactory() {
+        return SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        MappingJackson2SmileHttpMessageConverter smileConverter = new MappingJackson2SmileHttpMessageConverter(
+                Jackson2ObjectMapperBuilder.smile().factory(createSmileFactory()).build());
+
+        converters.replaceAll(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter ? smileConverter : converter);
+    }
+}
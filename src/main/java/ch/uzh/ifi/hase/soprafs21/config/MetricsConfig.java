@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import io.micrometer.core.instrument.Metrics;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Metrics Configuration
+ * Hooks the QueryCounter into Hibernate and records its counts per request.
+ * All metrics are exposed in Prometheus format on /actuator/prometheus.
+ */
+@Configuration
+public class MetricsConfig implements WebMvcConfigurer {
+
+    private final QueryCounter queryCounter = new QueryCounter();
+
+    @Bean
+    public HibernatePropertiesCustomizer queryCounterCustomizer() {
+        return properties -> {
+            properties.put(AvailableSettings.INTERCEPTOR, queryCounter);
+            properties.put(AvailableSettings.STATEMENT_INSPECTOR, queryCounter);
+        };
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new RequestMetricsInterceptor(queryCounter, Metrics.globalRegistry));
+    }
+}
@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+
+/**
+ * Counts the SQL statements issued and the entities loaded by Hibernate on the current thread.
+ * The counters are reset at the start of every request, so after the request they hold the
+ * database work that this single request caused.
+ */
+public class QueryCounter extends EmptyInterceptor implements StatementInspector {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ThreadLocal<long[]> counts = ThreadLocal.withInitial(() -> new long[2]);
+
+    public void reset() {
+        long[] current = counts.get();
+        current[0] = 0;
+        current[1] = 0;
+    }
+
+    public long getStatements() {
+        return counts.get()[0];
+    }
+
+    public long getEntitiesLoaded() {
+        return counts.get()[1];
+    }
+
+    @Override
+    public String inspect(String sql) {
+        counts.get()[0]++;
+        return sql;
+    }
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        counts.get()[1]++;
+        return false;
+    }
+}
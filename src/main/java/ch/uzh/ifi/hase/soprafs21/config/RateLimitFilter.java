@@ -0,0 +1,208 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate Limit Filter
+ * Protects the expensive endpoints, registration (POST /users and /users/batch) and login (POST /users/login),
+ * from bursts. The path is normalized like the handler mapping does (no ;parameters, duplicate or trailing
+ * slashes), so a variant of the path that reaches the same handler is limited as well.
+ * Every client (by remote address) has a token bucket; once it is empty the request is rejected with 429.
+ * Behind a proxy, the remote address is the client address the proxy forwarded, see server.forward-headers-strategy.
+ * At most max-tracked-clients buckets are kept: once there are more, the bucket tracked longest ago is forgotten,
+ * unless it is still in use; such a bucket gets a second chance at the end of the queue, so this stays O(1).
+ * A bucket that is full again is forgotten without any loss, a new bucket starts full as well.
+ * The bucket is a single AtomicLong holding the time at which it is full again (generic cell rate algorithm),
+ * so admitting a request is one compare-and-set instead of a lock.
+ * On top of that, at most max-concurrent of these requests are handled at once; further ones are rejected
+ * with 503 instead of queueing. Both rejections tell the client with Retry-After when to try again.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final Set<String> LIMITED_PATHS = Set.of("/users", "/users/batch", "/users/login");
+
+    // once this many buckets in a row are in use, the oldest one is forgotten anyway
+    private static final int MAX_SECOND_CHANCES = 8;
+
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    // clients in the order their buckets were created; may still contain clients that were forgotten in the meantime
+    private final Queue<String> clients = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queuedClients = new AtomicInteger();
+
+    private final int maxTrackedClients;
+
+    private final Semaphore concurrentRequests;
+
+    // time it takes to refill one token, and how far a bucket may be ahead of now (burst - 1 tokens)
+    private final long emissionInterval;
+
+    private final long burstTolerance;
+
+    private final LongSupplier clock;
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public RateLimitFilter(@Value("${rate-limit.requests-per-second:10}") double requestsPerSecond,
+                           @Value("${rate-limit.burst:50}") int burst,
+                           @Value("${rate-limit.max-concurrent:32}") int maxConcurrent,
+                           @Value("${rate-limit.max-tracked-clients:100000}") int maxTrackedClients) {
+        this(requestsPerSecond, burst, maxConcurrent, maxTrackedClients, System::nanoTime, Metrics.globalRegistry);
+    }
+
+    RateLimitFilter(double requestsPerSecond, int burst, int maxConcurrent, int maxTrackedClients, LongSupplier clock,
+                    MeterRegistry registry) {
+        this.maxTrackedClients = maxTrackedClients;
+        this.emissionInterval = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        this.burstTolerance = emissionInterval * (burst - 1);
+        this.concurrentRequests = new Semaphore(maxConcurrent);
+        this.clock = clock;
+        this.registry = registry;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod()) || !LIMITED_PATHS.contains(getPath(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String endpoint = getPath(request);
+
+        long waitNanos = acquireToken(request.getRemoteAddr());
+        if (waitNanos > 0) {
+            count(endpoint, "rate_limited");
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, waitNanos);
+            return;
+        }
+
+        if (!concurrentRequests.tryAcquire()) {
+            count(endpoint, "overloaded");
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, TimeUnit.SECONDS.toNanos(1));
+            return;
+        }
+
+        try {
+            count(endpoint, "admitted");
+            filterChain.doFilter(request, response);
+        }
+        finally {
+            concurrentRequests.release();
+        }
+    }
+
+    /**
+     * Takes one token from the bucket of a client
+     * @param client remote address of the client
+     * @return 0 if a token was taken, otherwise the nanoseconds until the next token is available
+     */
+    long acquireToken(String client) {
+        long now = clock.getAsLong();
+        AtomicLong bucket = buckets.get(client);
+        if (bucket == null) {
+            bucket = track(client, now);
+        }
+
+        while (true) {
+            long fullAt = bucket.get();
+            long start = Math.max(fullAt, now);
+            if (start - now > burstTolerance) {
+                return start - now - burstTolerance;
+            }
+            if (bucket.compareAndSet(fullAt, start + emissionInterval)) {
+                return 0;
+            }
+        }
+    }
+
+    int getTrackedClients() {
+        return buckets.size();
+    }
+
+    private AtomicLong track(String client, long now) {
+        AtomicLong created = new AtomicLong(now);
+        AtomicLong existing = buckets.putIfAbsent(client, created);
+        if (existing != null) {
+            return existing;
+        }
+        clients.add(client);
+
+        if (queuedClients.incrementAndGet() > maxTrackedClients) {
+            forgetOne(now);
+        }
+        return created;
+    }
+
+    private void forgetOne(long now) {
+        for (int chances = 0; ; chances++) {
+            String client = clients.poll();
+            if (client == null) {
+                return;
+            }
+            AtomicLong bucket = buckets.get(client);
+
+            // a bucket that is not full yet belongs to an active client and is moved to the end
+            if (bucket != null && bucket.get() > now && chances < MAX_SECOND_CHANCES) {
+                clients.add(client);
+                continue;
+            }
+            queuedClients.decrementAndGet();
+            buckets.remove(client);
+            return;
+        }
+    }
+
+    private void reject(HttpServletResponse response, HttpStatus status, long waitNanos) throws IOException {
+        // Retry-After is in whole seconds, rounded up
+        long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        response.sendError(status.value(), status == HttpStatus.TOO_MANY_REQUESTS ?
+                "Too many requests, try again later" : "The server is busy, try again later");
+    }
+
+    private String getPath(HttpServletRequest request) {
+        // decoded, without the context path and without ;parameters
+        String path = urlPathHelper.getPathWithinApplication(request).replaceAll("/{2,}", "/");
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private void count(String endpoint, String outcome) {
+        Counter.builder("rate.limit.requests")
+                .description("Requests to rate limited endpoints by whether they were admitted or rejected")
+                .tags("uri", endpoint, "outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+}
@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Supplier;
+
+/**
+ * Sends the connections of read-only transactions that read through onReplica to the replica and all others
+ * to the primary database. The replica lags behind the primary, so reads that have to see the writes just committed
+ * (e.g. uniqueness checks, logins) stay on the primary even if they are read-only; only listings that may be
+ * slightly stale opt in to the replica.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    static final String PRIMARY = "primary";
+
+    static final String REPLICA = "replica";
+
+    private static final ThreadLocal<Boolean> replicaAllowed = ThreadLocal.withInitial(() -> false);
+
+    /**
+     * Runs reads that may be served by the replica. The connection of a transaction is chosen at its first statement,
+     * so if the current transaction is read-only and has not used a connection yet, it reads from the replica until it
+     * completes; otherwise the reads use the connection of the transaction.
+     * Without a configured replica the reads simply run on the database.
+     * @param reads reads that may see a slightly stale state of the database
+     * @return result of the reads
+     */
+    public static <T> T onReplica(Supplier<T> reads) {
+        boolean allowed = replicaAllowed.get();
+        replicaAllowed.set(true);
+        try {
+            return reads.get();
+        }
+        finally {
+            replicaAllowed.set(allowed);
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && replicaAllowed.get() ? REPLICA : PRIMARY;
+    }
+}
@@ -0,0 +1,49 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records per endpoint how many SQL statements a request issued and how many entities it loaded.
+ * The request latency itself is already recorded by Spring Boot as http.server.requests.
+ */
+public class RequestMetricsInterceptor implements HandlerInterceptor {
+
+    private final QueryCounter queryCounter;
+
+    private final MeterRegistry registry;
+
+    public RequestMetricsInterceptor(QueryCounter queryCounter, MeterRegistry registry) {
+        this.queryCounter = queryCounter;
+        this.registry = registry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        queryCounter.reset();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        Tags tags = Tags.of("uri", pattern == null ? "UNKNOWN" : pattern.toString(), "method", request.getMethod());
+
+        DistributionSummary.builder("db.statements.per.request")
+                .description("SQL statements issued by one request")
+                .tags(tags)
+                .register(registry)
+                .record(queryCounter.getStatements());
+        DistributionSummary.builder("db.entities.loaded.per.request")
+                .description("Entities loaded from the database by one request")
+                .tags(tags)
+                .register(registry)
+                .record(queryCounter.getEntitiesLoaded());
+    }
+}
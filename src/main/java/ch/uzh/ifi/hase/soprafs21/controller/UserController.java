@@ -2,17 +2,39 @@ package ch.uzh.ifi.hase.soprafs21.controller;
 
 import ch.uzh.ifi.hase.soprafs21.entity.Location;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserChangesGetDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs21.service.PresenceService;
 import ch.uzh.ifi.hase.soprafs21.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * User Controller
@@ -22,21 +44,51 @@ import java.util.List;
 @RestController
 public class UserController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static final String SYNC_CURSOR_HEADER = "X-Sync-Cursor";
+
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    static final int DEFAULT_SEARCH_LIMIT = 10;
+
+    // the encodings a user can be sent in, the default first (see EncodingConfig)
+    private static final List<MediaType> ENCODINGS = Arrays.asList(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR,
+            new MediaType("application", "x-jackson-smile"));
+
+    // one entry of an ETag list: "*" or an optionally weak quoted ETag
+    private static final Pattern ETAG_LIST_PATTERN = Pattern.compile("\\*|\\s*(W/)?(\"[^\"]*\")\\s*,?");
+
     private final UserService userService;
 
-    UserController(UserService userService) {
+    private final ObjectMapper objectMapper;
+
+    private final PresenceService presenceService;
+
+    UserController(UserService userService, PresenceService presenceService, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.presenceService = presenceService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping("users/{userID}")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO getToken(@PathVariable(value = "userID") Long userID){
+    public ResponseEntity<UserGetDTO> getToken(@PathVariable(value = "userID") Long userID, WebRequest request,
+                                               HttpServletResponse response){
         User fetched = userService.getUser(userID);
 
+        // the user is sent in the encoding the client accepts; caches have to keep the encodings apart
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        // The client already has this version of the user -> 304 without mapping or serializing it
+        String eTag = getETag(fetched, getEncoding(request));
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
         // Used for the registration, only time a token gets returned
         // Token is then stored in localStorage
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(fetched);
+        return ResponseEntity.ok().eTag(eTag).body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(fetched));
     }
 
     @GetMapping("/users/{userID}/{userToken}")
@@ -46,17 +98,7 @@ public class UserController {
         // Fetch a single user corresponding to the userID
         User fetched = userService.getUser(userID);
 
-        boolean valid = false;
-        List<User> users = userService.getUsers();
-
-        for (User user : users) {
-            if (token.equals(user.getToken())) {
-                valid = true;
-                break;
-            }
-        }
-
-        if (!valid){
+        if (!userService.isTokenValid(token)){
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
         }
 
@@ -65,20 +107,103 @@ public class UserController {
     }
 
     @GetMapping("/users")
+    @ResponseBody
+    public ResponseEntity<List<UserGetNoTokenDTO>> getAllUsers(@RequestParam(value = "after", required = false) Long after,
+                                                               @RequestParam(value = "limit", required = false) Integer limit,
+                                                               WebRequest request, HttpServletResponse response) {
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        // The version of the whole table is cheap to get; if the client's copy is up to date, no user is loaded
+        // The ETag is weak: the list is the same in every encoding, and the server may still gzip it
+        String eTag = "W/\"" + userService.getUsersVersion() + "\"";
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        // read the sync cursor before the users, so no change can fall between the list and the cursor
+        String syncCursor = userService.getChangeCursor();
+
+        // fetch all users, already in the API representation
+        // if a cursor or a limit is given, only one page of users is fetched
+        boolean paged = after != null || limit != null;
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        List<UserGetNoTokenDTO> users = paged ? userService.getUserSummaries(after, pageSize) : userService.getUserSummaries();
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().eTag(eTag)
+                .header(SYNC_CURSOR_HEADER, syncCursor);
+
+        // a full page means there might be more users -> hand out the cursor for the next page
+        if (paged && !users.isEmpty() && users.size() == pageSize) {
+            builder.header(NEXT_CURSOR_HEADER, String.valueOf(users.get(users.size() - 1).getId()));
+        }
+        return builder.body(users);
+    }
+
+    /* Code for fetching all users without holding them in memory: each user is written as soon as it is read */
+    @GetMapping(value = "/users", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(WebRequest request, HttpServletResponse response) {
+        // only JSON is streamed; clients accepting other encodings get the whole list from getAllUsers
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+
+        // same ETag as the list, the streamed JSON is the same list
+        String eTag = "W/\"" + userService.getUsersVersion() + "\"";
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
+
+        // read the sync cursor before the users, so no change can fall between the list and the cursor
+        String syncCursor = userService.getChangeCursor();
+
+        StreamingResponseBody body = outputStream -> {
+            try (SequenceWriter writer = objectMapper.writerFor(UserGetNoTokenDTO.class).writeValuesAsArray(outputStream)) {
+                userService.streamUserSummaries(user -> {
+                    try {
+                        writer.write(user);
+                    }
+                    catch (IOException e) {
+                        // the client went away; stops reading the users
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().eTag(eTag).header(SYNC_CURSOR_HEADER, syncCursor).body(body);
+    }
+
+    /* Code for syncing a copy of the user list: returns only the users changed since the client's cursor */
+    @GetMapping("/users/changes")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetNoTokenDTO> getAllUsers() {
-        // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
-        List<UserGetNoTokenDTO> userGetNoTokenDTOs = new ArrayList<>();
+    public UserChangesGetDTO getChangedUsers(@RequestParam(value = "since") String since) {
+        String cursor = userService.getChangeCursor();
+        List<User> users = userService.getUsersChangedSince(since);
 
-        // convert each user to the API representation
+        List<UserGetNoTokenDTO> userGetNoTokenDTOs = new ArrayList<>(users.size());
         for (User user : users) {
             userGetNoTokenDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetNoTokenDTO(user));
         }
-        return userGetNoTokenDTOs;
+
+        UserChangesGetDTO changes = new UserChangesGetDTO();
+        changes.setCursor(cursor);
+        changes.setUsers(userGetNoTokenDTOs);
+        return changes;
     }
 
+    /* Code for searching users by the start of their username or name, e.g. for autocompletion */
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserGetNoTokenDTO> searchUsers(@RequestParam(value = "q") String query,
+                                               @RequestParam(value = "limit", required = false) Integer limit,
+                                               @RequestParam(value = "fuzzy", defaultValue = "false") boolean fuzzy) {
+        return userService.searchUsers(query, limit == null ? DEFAULT_SEARCH_LIMIT : limit, fuzzy);
+    }
+
+    /* Code for subscribing to status changes of users instead of polling GET /users */
+    @GetMapping(value = "/users/presence", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribePresence() {
+        return presenceService.subscribe();
+    }
 
     /* Code for registering a user */
     @PostMapping("/users")
@@ -96,6 +221,34 @@ public class UserController {
         return location;
     }
 
+    /* Code for registering many users at once, e.g. for imports */
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserBatchResultDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        // convert API users to internal representation
+        List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+        }
+
+        // create users, the ones that could not be created are returned with their error
+        Map<Integer, String> conflicts = userService.createUsers(userInputs);
+
+        List<UserBatchResultDTO> results = new ArrayList<>(userInputs.size());
+        for (int i = 0; i < userInputs.size(); i++) {
+            UserBatchResultDTO result = new UserBatchResultDTO();
+            result.setIndex(i);
+            if (conflicts.containsKey(i)) {
+                result.setError(conflicts.get(i));
+            }
+            else {
+                result.setLocation("/users/" + userInputs.get(i).getId());
+            }
+            results.add(result);
+        }
+        return results;
+    }
 
     /* Code for logging in a user */
     @PostMapping("/users/login")
@@ -127,10 +280,20 @@ public class UserController {
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(mappedUser);
     }
 
+    /* Code for keeping a session alive; a client that stops sending heartbeats is logged out after the idle timeout */
+    @PostMapping("/users/heartbeat")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void heartbeat(@RequestBody UserPostDTO userPostDTO){
+        User loggedIn = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+
+        userService.heartbeat(loggedIn.getToken());
+    }
+
     /* Code for updating user info */
     @PutMapping("/users/{userID}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void updateUser(@RequestBody UserPostDTO userPostDTO, @PathVariable(value="userID") Long userID){
+    public void updateUser(@RequestBody UserPostDTO userPostDTO, @PathVariable(value="userID") Long userID,
+                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch){
         // get variables that have to change
         User toChange = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
 
@@ -138,7 +301,107 @@ public class UserController {
 
         String newBirthday = toChange.getBirthDate();
 
-        userService.updateUser(userID, newUsername, newBirthday);
+        // only update if the user is still in the version the client has seen
+        Set<Long> expectedVersions = getExpectedVersions(userID, ifMatch);
+
+        userService.updateUser(userID, newUsername, newBirthday, expectedVersions);
+    }
+
+    /* Code for changing only some user info with one update, without loading the user first */
+    @PatchMapping("/users/{userID}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void patchUser(@RequestBody UserPostDTO userPostDTO, @PathVariable(value="userID") Long userID,
+                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch){
+        User toChange = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+
+        Set<Long> expectedVersions = getExpectedVersions(userID, ifMatch);
+
+        userService.patchUser(userID, toChange.getUsername(), toChange.getBirthDate(), expectedVersions);
+    }
+
+    /**
+     * Helper Method to build the ETag of a user; it changes with every update of the user and with every change
+     * of its status, including the changes not written yet. Status changes do not increase the version,
+     * so the status is part of the ETag. The ETag is strong, so it can be used in If-Match; each encoding
+     * of the user has its own.
+     * A single user is smaller than server.compression.min-response-size, so it is never gzipped.
+     * @param user user with its current status
+     * @param encoding subtype of the media type the user is sent in, e.g. json
+     * @return strong ETag of the form "id-version-status-encoding"
+     */
+    private static String getETag(User user, String encoding) {
+        String status = user.getStatus() == null ? "none" : user.getStatus().name().toLowerCase(Locale.ROOT);
+        return "\"" + user.getId() + "-" + user.getVersion() + "-" + status + "-" + encoding + "\"";
+    }
+
+    /**
+     * Helper Method to find the encoding the response is sent in, the way the content negotiation picks it:
+     * the most specific accepted media type with the highest quality wins, JSON if the client accepts anything
+     * @param request request with the Accept header of the client
+     * @return subtype of the media type, e.g. json or cbor
+     */
+    private static String getEncoding(WebRequest request) {
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept != null) {
+            try {
+                List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+                MediaType.sortBySpecificityAndQuality(acceptedTypes);
+
+                for (MediaType acceptedType : acceptedTypes) {
+                    for (MediaType encoding : ENCODINGS) {
+                        if (acceptedType.getQualityValue() > 0 && acceptedType.includes(encoding)) {
+                            return encoding.getSubtype();
+                        }
+                    }
+                }
+            }
+            catch (InvalidMediaTypeException e) {
+                // answered with 406 by the content negotiation anyway
+            }
+        }
+        return ENCODINGS.get(0).getSubtype();
     }
 
+    /**
+     * Helper Method to find the versions of a user that match the ETags in an If-Match header.
+     * If-Match uses the strong comparison: weak ETags never match, and only ETags getETag built for
+     * this user do, with any status and in any encoding; "*" matches any version of an existing user.
+     * @param userID ID of the user that is changed
+     * @param ifMatch If-Match header sent by the client; may be null
+     * @return versions the client has seen, or null if the version is not checked
+     * @throws ResponseStatusException 412 if no ETag in the header can match a version of the user
+     */
+    private static Set<Long> getExpectedVersions(Long userID, String ifMatch) {
+        if (ifMatch == null) {
+            return null;
+        }
+        String prefix = "\"" + userID + "-";
+        Set<Long> versions = new HashSet<>();
+
+        Matcher matcher = ETAG_LIST_PATTERN.matcher(ifMatch);
+        while (matcher.find()) {
+            if ("*".equals(matcher.group().trim())) {
+                return null;
+            }
+            String eTag = matcher.group(2);
+            if (matcher.group(1) != null || !eTag.startsWith(prefix)) {
+                continue;
+            }
+
+            // the ETags of all statuses and encodings of a version match that version
+            String version = eTag.substring(prefix.length(), eTag.length() - 1);
+            int encodingStart = version.indexOf('-');
+            try {
+                versions.add(Long.parseLong(encodingStart < 0 ? version : version.substring(0, encodingStart)));
+            }
+            catch (NumberFormatException e) {
+                // not an ETag of this user
+            }
+        }
+
+        if (versions.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "No ETag in If-Match matches this user");
+        }
+        return versions;
+    }
 }
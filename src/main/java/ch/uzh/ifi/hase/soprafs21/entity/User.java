@@ -1,9 +1,12 @@
 package ch.uzh.ifi.hase.soprafs21.entity;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.io.Serializable;
+import java.time.LocalDateTime;
 
 
 /**
@@ -12,15 +15,24 @@ import java.io.Serializable;
  * Every variable will be mapped into a database field with the @Column annotation
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes the primary key
+ * Users are kept in the second-level cache (see ehcache.xml), Hibernate updates the cached entry on every write.
  */
 @Entity
-@Table(name = "USER")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Table(name = "USER", indexes = {
+        // every query predicate has an index; username and token are indexed by their unique constraints
+        @Index(name = "idx_user_name", columnList = "name"),
+        @Index(name = "idx_user_status", columnList = "status")
+})
 public class User implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // ids are taken from a pooled sequence, so inserts can be sent in JDBC batches
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_sequence")
+    @SequenceGenerator(name = "user_sequence", sequenceName = "user_sequence", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
@@ -40,11 +52,15 @@ public class User implements Serializable {
     private UserStatus status;
 
     @Column(nullable = false)
-    private String creationDate;
+    private LocalDateTime creationDate;
 
     @Column
     private String birthDate;
 
+    // incremented on every update of the profile, not on status changes; used for ETags and to detect concurrent updates
+    @Version
+    private Long version;
+
     public Long getId() {
         return id;
     }
@@ -93,11 +109,11 @@ public class User implements Serializable {
         this.status = status;
     }
 
-    public String getCreationDate() {
+    public LocalDateTime getCreationDate() {
         return creationDate;
     }
 
-    public void setCreationDate(String creationDate) {
+    public void setCreationDate(LocalDateTime creationDate) {
         this.creationDate = creationDate;
     }
 
@@ -109,4 +125,12 @@ public class User implements Serializable {
         this.birthDate = birthdayDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
 }
@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs21.event;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+
+/**
+ * Published by the UserService whenever the status of a user changes (registration, login, logout).
+ * Listeners receive it once the transaction that changed the status has been committed.
+ */
+public class UserStatusChangedEvent {
+
+    private final Long id;
+    private final UserStatus status;
+
+    public UserStatusChangedEvent(Long id, UserStatus status) {
+        this.id = id;
+        this.status = status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs21.event;
+
+/**
+ * Published by the UserService whenever a user is created or its information is updated.
+ * It carries the username and name after the change, e.g. for the search index; null if they did not change.
+ * Status changes are published as UserStatusChangedEvent instead.
+ * Listeners receive it once the transaction that changed the user has been committed.
+ */
+public class UserUpdatedEvent {
+
+    private final Long id;
+
+    private final String username;
+
+    private final String name;
+
+    public UserUpdatedEvent(Long id, String username, String name) {
+        this.id = id;
+        this.username = username;
+        this.name = name;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
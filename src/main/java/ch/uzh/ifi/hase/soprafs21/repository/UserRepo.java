@@ -1,18 +1,74 @@
 package ch.uzh.ifi.hase.soprafs21.repository;
 
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository("userRepository")
-public interface UserRepo extends JpaRepository<User, Long> {
+public interface UserRepo extends JpaRepository<User, Long>, UserRepoCustom {
+    // The results of these lookups are kept in the query cache;
+    // Hibernate invalidates them whenever the USER table is written
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
     User findByName(String name);
 
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
     User findByUsername(String username);
 
-    User findByPassword(String password);
-
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"))
     User findByToken(String token);
+
+    // Projections for the user list: only the columns of UserGetNoTokenDTO are selected, directly into DTOs,
+    // so no entities are hydrated or tracked by the persistence context
+    @Query("select new ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO(u.id, u.name, u.username, u.status, u.creationDate, u.birthDate) " +
+            "from User u")
+    List<UserGetNoTokenDTO> findAllSummaries();
+
+    // Keyset pagination: the next page starts right after the last id of the previous one
+    @Query("select new ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO(u.id, u.name, u.username, u.status, u.creationDate, u.birthDate) " +
+            "from User u where u.id > :id order by u.id asc")
+    List<UserGetNoTokenDTO> findSummariesByIdGreaterThan(@Param("id") Long id, Pageable pageable);
+
+    @Query("select new ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO(u.id, u.name, u.username, u.status, u.creationDate, u.birthDate) " +
+            "from User u where u.id in :ids")
+    List<UserGetNoTokenDTO> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Everything the search index and the uniqueness filters need: id, username and name of every user.
+    // The rows are fetched in chunks while the stream is consumed, instead of all at once
+    @QueryHints({
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")
+    })
+    @Query("select u.id, u.username, u.name from User u")
+    Stream<Object[]> streamAllSearchTerms();
+
+    // The whole list for streaming it to a client; the rows are fetched in chunks while the stream is consumed
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("select new ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO(u.id, u.name, u.username, u.status, u.creationDate, u.birthDate) " +
+            "from User u order by u.id asc")
+    Stream<UserGetNoTokenDTO> streamAllSummaries();
+
+    @Query("select u.id from User u where u.status = :status")
+    List<Long> findIdsByStatus(@Param("status") UserStatus status);
+
+    @Query("select count(u) as users, coalesce(sum(u.version), 0) as versions, coalesce(max(u.id), 0) as maxId from User u")
+    UserTableVersion findTableVersion();
+
+    // Set-based uniqueness checks: only the values that are already taken are returned
+    @Query("select u.username from User u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    @Query("select u.name from User u where u.name in :names")
+    List<String> findExistingNames(@Param("names") Collection<String> names);
 }
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+
+import java.util.Collection;
+
+/**
+ * Queries of the UserRepo that are built at runtime instead of being derived from the method name,
+ * and bulk updates that evict only the updated users from the second-level cache
+ */
+public interface UserRepoCustom {
+
+    /**
+     * Updates only the given attributes of a user with one UPDATE statement, without loading the user first.
+     * The version of the user is increased like for any other update.
+     * @param id ID of the user
+     * @param username new username; if null it is not changed
+     * @param birthDate new birth date; if null it is not changed
+     * @param expectedVersions the user is only updated if it still has one of these versions; if null the version is not checked
+     * @return 1 if the user was updated, 0 if there is no such user or it has another version
+     */
+    int updateUser(Long id, String username, String birthDate, Collection<Long> expectedVersions);
+
+    /**
+     * Sets the status of many users with one statement. The version is not increased: the status changes with every
+     * login and logout, and an update of the profile with If-Match must not fail because of that.
+     * @param ids IDs of the users
+     * @param status new status
+     * @return number of users whose status changed
+     */
+    int updateStatus(Collection<Long> ids, UserStatus status);
+}
@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import org.hibernate.cache.spi.CacheImplementor;
+import org.hibernate.cache.spi.TimestampsCache;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.query.NativeQuery;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * The bulk updates are native statements, so Hibernate cannot tell which users they change: for a JPQL or Criteria
+ * update it evicts every cached user and every cached query on the USER table. Here the statement is synchronized
+ * with a query space no entity uses, and only the updated users are evicted from the second-level cache, right away
+ * and again once the transaction completed (a concurrent read may have cached the old state in between).
+ * Cached query results are only invalidated if the update changes a column they select users by.
+ */
+public class UserRepoCustomImpl implements UserRepoCustom {
+
+    // no entity is mapped to this query space, so no entity region is evicted for the statement
+    private static final String NO_ENTITY_QUERY_SPACE = "bulk_update";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int updateUser(Long id, String username, String birthDate, Collection<Long> expectedVersions) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        StringJoiner columns = new StringJoiner(", ");
+
+        // only the changed columns are set
+        if (username != null) {
+            columns.add("username = :username");
+            parameters.put("username", username);
+        }
+        if (birthDate != null) {
+            columns.add("birth_date = :birthDate");
+            parameters.put("birthDate", birthDate);
+        }
+        columns.add("version = version + 1");
+
+        // the version check is part of the statement, so no other update can slip in between check and write
+        String sql = "update USER set " + columns + " where id = :id";
+        parameters.put("id", id);
+        if (expectedVersions != null) {
+            sql += " and version in (:expectedVersions)";
+            parameters.put("expectedVersions", expectedVersions);
+        }
+
+        // users are looked up by username from the query cache
+        return executeUpdate(sql, parameters, Collections.singletonList(id), username != null);
+    }
+
+    @Override
+    public int updateStatus(Collection<Long> ids, UserStatus status) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("status", status.ordinal());
+        parameters.put("ids", ids);
+
+        return executeUpdate("update USER set status = :status where id in (:ids) and status <> :status",
+                parameters, ids, false);
+    }
+
+    private int executeUpdate(String sql, Map<String, Object> parameters, Collection<Long> ids, boolean invalidateQueries) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        CacheImplementor cache = session.getFactory().getCache();
+        TimestampsCache timestamps = cache.getTimestampsCache();
+        Serializable[] querySpaces = session.getFactory().getMetamodel().entityPersister(User.class).getQuerySpaces();
+        String[] userSpaces = Arrays.copyOf(querySpaces, querySpaces.length, String[].class);
+
+        // pending changes of users are written first, as for any query on the USER table
+        session.flush();
+
+        NativeQuery<?> query = session.createNativeQuery(sql);
+        parameters.forEach(query::setParameter);
+        query.addSynchronizedQuerySpace(NO_ENTITY_QUERY_SPACE);
+
+        if (invalidateQueries) {
+            timestamps.preInvalidate(userSpaces, session);
+        }
+        ids.forEach(id -> cache.evictEntityData(User.class, id));
+
+        int updated = query.executeUpdate();
+
+        session.getActionQueue().registerProcess((success, completed) -> {
+            ids.forEach(id -> cache.evictEntityData(User.class, id));
+            if (invalidateQueries) {
+                timestamps.invalidate(userSpaces, completed);
+            }
+        });
+        return updated;
+    }
+}
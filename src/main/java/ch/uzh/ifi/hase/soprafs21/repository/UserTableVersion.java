@@ -0,0 +1,14 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+/**
+ * Aggregate over the USER table that changes whenever a user is created or updated:
+ * inserts change the count and the highest id, updates increment the version of the updated user.
+ */
+public interface UserTableVersion {
+
+    Long getUsers();
+
+    Long getVersions();
+
+    Long getMaxId();
+}
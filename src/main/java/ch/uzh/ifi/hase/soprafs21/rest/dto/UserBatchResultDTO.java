@@ -0,0 +1,35 @@
+package ch.uzh.ifi.hase.soprafs21.rest.dto;
+
+// Result for one user of a batch registration: either the location of the created user or the error
+public class UserBatchResultDTO {
+
+    private int index;
+
+    private String location;
+
+    private String error;
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
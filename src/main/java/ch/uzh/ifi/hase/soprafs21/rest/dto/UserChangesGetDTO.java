@@ -0,0 +1,27 @@
+package ch.uzh.ifi.hase.soprafs21.rest.dto;
+
+import java.util.List;
+
+// Users changed since the cursor of the client's last sync, plus the cursor for the next sync
+public class UserChangesGetDTO {
+
+    private String cursor;
+
+    private List<UserGetNoTokenDTO> users;
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public List<UserGetNoTokenDTO> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<UserGetNoTokenDTO> users) {
+        this.users = users;
+    }
+}
@@ -1,6 +1,9 @@
 package ch.uzh.ifi.hase.soprafs21.rest.dto;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.rest.mapper.DTOMapper;
+
+import java.time.LocalDateTime;
 
 // Doesn't return a token to comply with the REST specifications
     public class UserGetNoTokenDTO {
@@ -12,6 +15,20 @@ import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
         private String creationDate;
         private String birthDate;
 
+        public UserGetNoTokenDTO() {
+        }
+
+        // Used by the projection queries of the UserRepo, which select these columns directly into the DTO
+        public UserGetNoTokenDTO(Long id, String name, String username, UserStatus status,
+                                 LocalDateTime creationDate, String birthDate) {
+            this.id = id;
+            this.name = name;
+            this.username = username;
+            this.status = status;
+            this.creationDate = creationDate == null ? null : DTOMapper.DATE_FORMATTER.format(creationDate);
+            this.birthDate = birthDate;
+        }
+
         public Long getId() {
             return id;
         }
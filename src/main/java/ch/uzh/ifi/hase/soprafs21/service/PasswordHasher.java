@@ -0,0 +1,182 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Password Hasher
+ * This class hashes and verifies passwords with PBKDF2.
+ * Hashing is deliberately expensive, so it runs on a small dedicated pool with a bounded queue:
+ * a burst of logins can never use more cores than the pool has, and if the queue is full the request
+ * is rejected with 503 instead of piling up behind the request threads.
+ * Stored hashes have the format pbkdf2$iterations$salt$hash, anything else is a legacy plain text password.
+ */
+@Component
+public class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 256;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final int iterations;
+
+    private final int threads;
+
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHasher(@Value("${password.hash.iterations:120000}") int iterations,
+                          @Value("${password.hash.threads:0}") int threads,
+                          @Value("${password.hash.queue-size:256}") int queueSize) {
+        this.iterations = iterations;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Hashes a password with a new random salt
+     * @param password plain text password; may be null
+     * @return hash in the stored format or null if the password is null
+     */
+    public String hash(String password) {
+        if (password == null) {
+            return null;
+        }
+        return await(submit(() -> hashNow(password)));
+    }
+
+    /**
+     * Hashes many passwords in parallel on the pool, e.g. for a batch registration
+     * @param passwords plain text passwords
+     * @return hashes in the same order
+     */
+    public List<String> hashAll(List<String> passwords) {
+        List<String> hashes = new ArrayList<>(passwords.size());
+
+        // submit at most two tasks per thread at once, so a large batch cannot fill the queue for everyone else
+        int window = threads * 2;
+        for (int from = 0; from < passwords.size(); from += window) {
+            List<Future<String>> pending = new ArrayList<>(window);
+            for (String password : passwords.subList(from, Math.min(from + window, passwords.size()))) {
+                pending.add(password == null ? CompletableFuture.completedFuture(null) : submit(() -> hashNow(password)));
+            }
+            for (Future<String> future : pending) {
+                hashes.add(await(future));
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Checks a password against a stored password
+     * @param password plain text password entered by the user
+     * @param stored stored hash or legacy plain text password
+     * @return true if the password matches
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        return await(submit(() -> verifyNow(password, stored)));
+    }
+
+    /**
+     * @param stored stored password
+     * @return true if the stored password is plain text or was hashed with another cost factor
+     */
+    public boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        return Integer.parseInt(stored.split("\\$")[1]) != iterations;
+    }
+
+    public boolean isHashed(String stored) {
+        return stored != null && stored.startsWith(PREFIX + "$") && stored.split("\\$").length == 4;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private String hashNow(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        return String.join("$", PREFIX, String.valueOf(iterations), encoder.encodeToString(salt), encoder.encodeToString(hash));
+    }
+
+    private boolean verifyNow(String password, String stored) {
+        String[] parts = stored.split("\\$");
+        Base64.Decoder decoder = Base64.getDecoder();
+
+        byte[] expected = decoder.decode(parts[3]);
+        byte[] actual = pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Password could not be hashed", e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        try {
+            return executor.submit(task);
+        }
+        catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many logins at the moment, please try again later");
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Password check was interrupted");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Presence Service
+ * This class pushes status changes of users to all subscribed clients over Server-Sent Events,
+ * so clients do not have to poll GET /users to see who is online.
+ * Subscriptions are async requests, so an idle client does not hold a request thread.
+ * Publishing a change only appends it to a queue, so logins and logouts do not loop over the subscribers.
+ * A dispatcher thread collects the changes of one dispatch interval, keeps the latest status of each user and
+ * hands them to every subscriber as one "status" event holding a list of changes, so a burst of changes (e.g. many
+ * expired sessions at once) takes one place in the queue of a subscriber instead of one per change.
+ * Every subscriber has a small queue of its own, drained by a small pool of sender threads, so a slow client
+ * only delays itself; a client whose queue is full is disconnected and has to subscribe again.
+ * A comment is sent to all subscribers periodically, so proxies do not close idle connections and
+ * dead connections are noticed. At most max-subscribers clients can subscribe at once.
+ */
+@Service
+public class PresenceService {
+
+    private final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    private final Map<SseEmitter, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    // changes published since the last dispatch
+    private final Queue<UserStatusChangedEvent> changes = new ConcurrentLinkedQueue<>();
+
+    // true while a dispatch is scheduled that has not started collecting the changes yet
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService dispatcher;
+
+    // at most one task per subscriber is queued at once, so the queue of the pool is bounded by max-subscribers
+    private final ExecutorService senders;
+
+    private final long subscriptionTimeout;
+
+    private final int maxSubscribers;
+
+    private final int queueSize;
+
+    private final long dispatchInterval;
+
+    @Autowired
+    public PresenceService(@Value("${presence.subscription-timeout-ms:1800000}") long subscriptionTimeout,
+                           @Value("${presence.max-subscribers:10000}") int maxSubscribers,
+                           @Value("${presence.subscriber-queue-size:64}") int queueSize,
+                           @Value("${presence.sender-threads:4}") int senderThreads,
+                           @Value("${presence.dispatch-interval-ms:100}") long dispatchInterval) {
+        this.subscriptionTimeout = subscriptionTimeout;
+        this.maxSubscribers = maxSubscribers;
+        this.queueSize = queueSize;
+        this.dispatchInterval = dispatchInterval;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "presence-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Registers a new client; the client is removed again once its connection completes, times out or fails
+     * @return emitter the status changes are sent to
+     */
+    public SseEmitter subscribe() {
+        if (subscribers.size() >= maxSubscribers) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many presence subscribers, try again later");
+        }
+        return register(new SseEmitter(subscriptionTimeout));
+    }
+
+    SseEmitter register(SseEmitter emitter) {
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(e -> subscribers.remove(emitter));
+
+        subscribers.put(emitter, new Subscriber(emitter, queueSize));
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(UserStatusChangedEvent event) {
+        changes.add(event);
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            dispatcher.schedule(this::dispatch, dispatchInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hands the changes published since the last dispatch to all subscribers, as one event per subscriber
+     */
+    void dispatch() {
+        // a change published from here on schedules the next dispatch
+        dispatchScheduled.set(false);
+
+        // only the latest status of a user is sent
+        Map<Long, UserStatusChangedEvent> latest = new LinkedHashMap<>();
+        UserStatusChangedEvent change;
+        while ((change = changes.poll()) != null) {
+            latest.remove(change.getId());
+            latest.put(change.getId(), change);
+        }
+        if (latest.isEmpty()) {
+            return;
+        }
+
+        List<UserStatusChangedEvent> batch = new ArrayList<>(latest.values());
+        for (Subscriber subscriber : subscribers.values()) {
+            // a builder keeps the text it built, so every subscriber needs one of its own
+            enqueue(subscriber, SseEmitter.event().name("status").data(batch, MediaType.APPLICATION_JSON));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${presence.keep-alive-ms:15000}")
+    public void sendKeepAlive() {
+        for (Subscriber subscriber : subscribers.values()) {
+            enqueue(subscriber, SseEmitter.event().comment("keep-alive"));
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (!subscriber.events.offer(event)) {
+            // the client cannot keep up -> drop it instead of buffering more events for it
+            log.debug("Disconnecting slow presence subscriber");
+            disconnect(subscriber);
+            return;
+        }
+        if (subscriber.sending.compareAndSet(false, true)) {
+            senders.execute(() -> send(subscriber));
+        }
+    }
+
+    private void send(Subscriber subscriber) {
+        while (true) {
+            SseEmitter.SseEventBuilder event;
+            while ((event = subscriber.events.poll()) != null) {
+                try {
+                    subscriber.emitter.send(event);
+                }
+                catch (IOException | IllegalStateException e) {
+                    // the client is gone -> drop it
+                    log.debug("Removing presence subscriber: {}", e.getMessage());
+                    disconnect(subscriber);
+                    subscriber.sending.set(false);
+                    return;
+                }
+            }
+            subscriber.sending.set(false);
+
+            // an event enqueued after the last poll but before the flag was cleared has no task of its own
+            if (subscriber.events.isEmpty() || !subscriber.sending.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void disconnect(Subscriber subscriber) {
+        if (subscribers.remove(subscriber.emitter) != null) {
+            subscriber.events.clear();
+            subscriber.emitter.complete();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdown();
+        senders.shutdown();
+        subscribers.keySet().forEach(SseEmitter::complete);
+    }
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final Queue<SseEmitter.SseEventBuilder> events;
+
+        // true while a sender thread drains the queue of this subscriber
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter, int queueSize) {
+            this.emitter = emitter;
+            this.events = new ArrayBlockingQueue<>(queueSize);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Session Expiry
+ * This class keeps track of the sessions of all ONLINE users and finds the ones that expired.
+ * A session expires once the user was idle (no heartbeat) for the idle timeout,
+ * or at the latest the absolute timeout after the login.
+ * The sessions are kept in a hashed timing wheel: a ring of buckets, one per tick, and every session sits
+ * in the bucket of the tick it would expire at. A heartbeat only updates the time the user was last seen;
+ * when the bucket comes up, a session that was refreshed in the meantime is moved to the bucket of its new
+ * deadline instead of expiring. Deadlines further away than one turn of the wheel are handled the same way.
+ * So a heartbeat is O(1) without any lock, and every tick only looks at the sessions in its own bucket.
+ * A session starts with every registration and login, also if the user was still ONLINE, and ends with
+ * the logout, once it is committed.
+ */
+@Component
+public class SessionExpiry {
+
+    private final Logger log = LoggerFactory.getLogger(SessionExpiry.class);
+
+    private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+
+    // guarded by this
+    private final ArrayDeque<Session>[] wheel;
+
+    // next tick whose bucket has to be checked; guarded by this
+    private long currentTick;
+
+    private final long idleTimeout;
+
+    private final long absoluteTimeout;
+
+    private final long tickDuration;
+
+    private final LongSupplier clock;
+
+    private final UserRepo userRepo;
+
+    @Autowired
+    public SessionExpiry(@Value("${session.idle-timeout-ms:1800000}") long idleTimeout,
+                         @Value("${session.absolute-timeout-ms:43200000}") long absoluteTimeout,
+                         @Value("${session.tick-ms:1000}") long tickDuration,
+                         @Qualifier("userRepository") UserRepo userRepo) {
+        this(idleTimeout, absoluteTimeout, tickDuration, System::currentTimeMillis, userRepo);
+    }
+
+    @SuppressWarnings("unchecked")
+    SessionExpiry(long idleTimeout, long absoluteTimeout, long tickDuration, LongSupplier clock, UserRepo userRepo) {
+        this.idleTimeout = idleTimeout;
+        this.absoluteTimeout = absoluteTimeout;
+        this.tickDuration = tickDuration;
+        this.clock = clock;
+        this.userRepo = userRepo;
+
+        // one turn of the wheel covers the idle timeout, so most sessions are only looked at once
+        int buckets = (int) Math.min(Math.max(idleTimeout / tickDuration + 1, 2), 1 << 16);
+        this.wheel = new ArrayDeque[buckets];
+        for (int i = 0; i < buckets; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.currentTick = clock.getAsLong() / tickDuration;
+    }
+
+    // users that were ONLINE before a restart get a new session instead of staying ONLINE forever
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreSessions() {
+        List<Long> onlineIDs = userRepo.findIdsByStatus(UserStatus.ONLINE);
+        for (Long id : onlineIDs) {
+            start(id);
+        }
+        log.info("Restored {} sessions", onlineIDs.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(UserStatusChangedEvent event) {
+        if (event.getStatus() == UserStatus.OFFLINE) {
+            end(event.getId());
+        }
+    }
+
+    /**
+     * Starts a new session for a user or replaces its current one
+     * @param id ID of the user
+     */
+    public synchronized void start(long id) {
+        long now = clock.getAsLong();
+        Session session = new Session(id, now, now + absoluteTimeout);
+        sessions.put(id, session);
+        schedule(session);
+    }
+
+    /**
+     * Refreshes the session of a user
+     * @param id ID of the user
+     * @return false if the user has no session (anymore)
+     */
+    public boolean touch(long id) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return false;
+        }
+        session.lastSeen = clock.getAsLong();
+        return true;
+    }
+
+    // the session stays in its bucket until the bucket comes up and is then dropped
+    public void end(long id) {
+        sessions.remove(id);
+    }
+
+    public boolean isActive(long id) {
+        return sessions.containsKey(id);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Advances the wheel to the current time and removes all sessions that expired until then
+     * @return IDs of the users whose session expired
+     */
+    public synchronized List<Long> poll() {
+        long nowTick = clock.getAsLong() / tickDuration;
+        List<Long> expired = new ArrayList<>();
+
+        // after a long pause every bucket is checked once, not once per missed tick
+        long from = Math.max(currentTick, nowTick - wheel.length + 1);
+        for (long tick = from; tick <= nowTick; tick++) {
+            int index = (int) (tick % wheel.length);
+            ArrayDeque<Session> bucket = wheel[index];
+            wheel[index] = new ArrayDeque<>();
+            currentTick = tick + 1;
+
+            for (Session session : bucket) {
+                // the session ended or was replaced by a new login
+                if (sessions.get(session.id) != session) {
+                    continue;
+                }
+                if (session.getDeadline() / tickDuration <= nowTick) {
+                    if (sessions.remove(session.id, session)) {
+                        expired.add(session.id);
+                    }
+                }
+                else {
+                    schedule(session);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick + 1);
+        return expired;
+    }
+
+    /**
+     * Runs the update of the users whose session expired while no session can start.
+     * Users that logged in again since poll() are left out; a user that logs in during the update
+     * only gets its new session once the update is done.
+     * @param expiredIDs IDs returned by poll()
+     * @param update sets the given users OFFLINE and commits
+     */
+    public synchronized void expire(List<Long> expiredIDs, Consumer<List<Long>> update) {
+        List<Long> stillExpired = expiredIDs.stream().filter(id -> !sessions.containsKey(id)).collect(Collectors.toList());
+        if (!stillExpired.isEmpty()) {
+            update.accept(stillExpired);
+        }
+    }
+
+    private synchronized void schedule(Session session) {
+        long tick = Math.max(session.getDeadline() / tickDuration, currentTick);
+        wheel[(int) (tick % wheel.length)].add(session);
+    }
+
+    private final class Session {
+
+        private final long id;
+
+        private final long expiresAt;
+
+        private volatile long lastSeen;
+
+        private Session(long id, long lastSeen, long expiresAt) {
+            this.id = id;
+            this.lastSeen = lastSeen;
+            this.expiresAt = expiresAt;
+        }
+
+        private long getDeadline() {
+            return Math.min(lastSeen + idleTimeout, expiresAt);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Status Write-Behind
+ * This class records the status changes of logins, logouts and expired sessions in memory and writes them
+ * to the USER table later, so these requests do not wait for a transaction commit.
+ * Once per interval, all pending changes are written with one UPDATE per status and batch of users.
+ * Until a change was written, reads of the user take its status from here instead of the table.
+ * A user whose status changed again while its change was written stays pending with its newer status.
+ * The pending changes are written once more when the application shuts down; changes of a crashed
+ * instance are lost, the sessions of the users then end with the restart as before.
+ */
+@Component
+public class StatusWriteBehind {
+
+    private final Logger log = LoggerFactory.getLogger(StatusWriteBehind.class);
+
+    private final Map<Long, UserStatus> pending = new ConcurrentHashMap<>();
+
+    // number of changes recorded so far, so a version of the user list can include changes not written yet
+    private final AtomicLong changes = new AtomicLong();
+
+    private final int batchSize;
+
+    private final UserRepo userRepo;
+
+    private final TransactionTemplate transaction;
+
+    public StatusWriteBehind(@Value("${presence.write-behind.batch-size:1000}") int batchSize,
+                             @Qualifier("userRepository") UserRepo userRepo, PlatformTransactionManager transactionManager) {
+        this.batchSize = batchSize;
+        this.userRepo = userRepo;
+        this.transaction = new TransactionTemplate(transactionManager);
+
+        Gauge.builder("presence.write.behind.pending", pending, Map::size)
+                .description("Status changes recorded in memory and not written to the database yet")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Records the new status of a user; it is written with the next flush
+     * @param id ID of the user
+     * @param status new status
+     */
+    public void record(long id, UserStatus status) {
+        pending.put(id, status);
+        changes.incrementAndGet();
+    }
+
+    /**
+     * @param id ID of a user
+     * @return status of the user that was not written yet, or null if the table is up to date
+     */
+    public UserStatus getPendingStatus(long id) {
+        return pending.get(id);
+    }
+
+    public long getChangeCount() {
+        return changes.get();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all pending changes, one UPDATE per status and batch of users.
+     * A batch that fails stays pending and is written again with the next flush.
+     */
+    @Scheduled(fixedDelayString = "${presence.write-behind.interval-ms:1000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<UserStatus, List<Long>> idsByStatus = new EnumMap<>(UserStatus.class);
+        pending.forEach((id, status) -> idsByStatus.computeIfAbsent(status, s -> new ArrayList<>()).add(id));
+
+        int written = 0;
+        for (Map.Entry<UserStatus, List<Long>> entry : idsByStatus.entrySet()) {
+            UserStatus status = entry.getKey();
+            List<Long> ids = entry.getValue();
+
+            for (int from = 0; from < ids.size(); from += batchSize) {
+                List<Long> batch = ids.subList(from, Math.min(from + batchSize, ids.size()));
+                Integer updated = transaction.execute(s -> userRepo.updateStatus(batch, status));
+                written += updated == null ? 0 : updated;
+
+                // only once committed, and only if the status did not change again in the meantime
+                for (Long id : batch) {
+                    pending.remove(id, status);
+                }
+            }
+        }
+        log.debug("Wrote pending status changes, {} users updated", written);
+    }
+
+    @PreDestroy
+    public void drain() {
+        flush();
+        log.info("Wrote pending status changes before shutdown");
+    }
+}
@@ -0,0 +1,163 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Token Cache
+ * This class maps the tokens of recently seen users to their ID and status, so checking a token
+ * does not touch the database on the hot path.
+ * It holds at most capacity tokens. Once it is full, the token that was cached first is dropped, unless it was
+ * used since then; such a token gets a second chance at the end of the queue. So adding a token stays O(1).
+ * A token is dropped as soon as the status of its user changes (login, logout, session expiry).
+ * A lookup that misses is only cached if no status changed while the user was loaded,
+ * so a logout committed in the meantime is never covered by the older state.
+ */
+@Component
+public class TokenCache {
+
+    // a full cache gives at most this many used tokens a second chance before it drops one anyway
+    private static final int MAX_SECOND_CHANCES = 8;
+
+    private final Map<String, CachedUser> users = new ConcurrentHashMap<>();
+
+    private final Map<Long, String> tokens = new ConcurrentHashMap<>();
+
+    // tokens in the order they were cached; may still contain tokens that were dropped in the meantime
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final int capacity;
+
+    public TokenCache(@Value("${token.cache.capacity:100000}") int capacity) {
+        this.capacity = capacity;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(UserStatusChangedEvent event) {
+        invalidate(event.getId());
+    }
+
+    /**
+     * @param token token sent by the client
+     * @param load looks the user up in the database if the token is not cached
+     * @return ID and status of the user with this token, or null if there is no such user
+     */
+    public CachedUser get(String token, Function<String, User> load) {
+        CachedUser cached = users.get(token);
+        if (cached != null) {
+            cached.used = true;
+            return cached;
+        }
+
+        long invalidationsBefore = invalidations.get();
+        User user = load.apply(token);
+        if (user == null) {
+            return null;
+        }
+        cached = new CachedUser(user.getId(), user.getStatus());
+
+        if (invalidations.get() == invalidationsBefore) {
+            put(token, cached);
+
+            // a status changed right after the check: the user might have been loaded before the change
+            if (invalidations.get() != invalidationsBefore) {
+                remove(token, cached);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Drops the token of a user, e.g. because its status changed
+     * @param id ID of the user
+     */
+    public void invalidate(long id) {
+        invalidations.incrementAndGet();
+        String token = tokens.remove(id);
+        if (token != null) {
+            users.remove(token);
+        }
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    private void put(String token, CachedUser user) {
+        if (users.put(token, user) != null) {
+            return;
+        }
+        tokens.put(user.id, token);
+        queue.add(token);
+
+        if (queued.incrementAndGet() > capacity) {
+            evictOne();
+        }
+    }
+
+    private void evictOne() {
+        for (int chances = 0; ; chances++) {
+            String token = queue.poll();
+            if (token == null) {
+                return;
+            }
+            CachedUser user = users.get(token);
+
+            // a used token is moved to the end once; a dropped token only leaves the queue
+            if (user != null && user.used && chances < MAX_SECOND_CHANCES) {
+                user.used = false;
+                queue.add(token);
+                continue;
+            }
+            queued.decrementAndGet();
+            if (user != null) {
+                remove(token, user);
+            }
+            return;
+        }
+    }
+
+    private void remove(String token, CachedUser user) {
+        if (users.remove(token, user)) {
+            tokens.remove(user.id, token);
+        }
+    }
+
+    public static final class CachedUser {
+
+        private final long id;
+
+        private final UserStatus status;
+
+        private volatile boolean used;
+
+        private CachedUser(long id, UserStatus status) {
+            this.id = id;
+            this.status = status;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public UserStatus getStatus() {
+            return status;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Token Generator
+ * Generates random tokens in the same format as UUID.randomUUID(), without its single shared SecureRandom:
+ * the tokens come from a few independent DRBG instances (two per core), each seeded once, and every instance
+ * takes the random bytes for many tokens at once. Threads are spread over the instances by their ID,
+ * so concurrent registrations rarely wait for each other. Stripes are used instead of one generator per thread,
+ * because request threads may be short-lived virtual threads.
+ */
+public final class TokenGenerator {
+
+    private static final int TOKEN_BYTES = 16;
+
+    // random bytes for 64 tokens per refill
+    private static final int BUFFER_SIZE = 64 * TOKEN_BYTES;
+
+    private static final TokenGenerator[] STRIPES = newStripes(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final SecureRandom random = newRandom();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position = BUFFER_SIZE;
+
+    private TokenGenerator() {
+    }
+
+    /**
+     * @return new random token, e.g. 3f0c5a7e-2b1d-4c8e-9f6a-0d4e2b7c1a5f
+     */
+    public static String nextToken() {
+        TokenGenerator stripe = STRIPES[(int) (Thread.currentThread().getId() % STRIPES.length)];
+        return stripe.generate();
+    }
+
+    private synchronized String generate() {
+        if (position == BUFFER_SIZE) {
+            random.nextBytes(buffer);
+            position = 0;
+        }
+        long mostSigBits = readLong();
+        long leastSigBits = readLong();
+
+        // set the version (4, random) and variant bits like UUID.randomUUID()
+        mostSigBits = (mostSigBits & ~0xF000L) | 0x4000L;
+        leastSigBits = (leastSigBits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    private long readLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private static TokenGenerator[] newStripes(int count) {
+        TokenGenerator[] stripes = new TokenGenerator[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new TokenGenerator();
+        }
+        return stripes;
+    }
+
+    private static SecureRandom newRandom() {
+        try {
+            return SecureRandom.getInstance("DRBG");
+        }
+        catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Predicate;
+
+/**
+ * Uniqueness Filter
+ * This class keeps a Bloom filter of all usernames and one of all names, so the uniqueness check of a registration
+ * only has to query the USER table if the username or name might already be taken.
+ * Most registrations use new names; for them the filters answer "definitely not taken" without any query.
+ * Values are added before the user is saved, so a filter never misses a taken value; a value of a user that was
+ * not saved or renamed afterwards only causes a false positive, which is checked with the query as before.
+ * Until the filters were filled from the USER table at startup (see UserWarmUp), every value counts as possibly taken.
+ * The estimated false positive probability, the observed false positives and the memory of the filters
+ * are exported as metrics.
+ */
+@Component
+public class UniquenessFilter {
+
+    private final BloomFilter usernames;
+
+    private final BloomFilter names;
+
+    private volatile boolean warmedUp;
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public UniquenessFilter(@Value("${uniqueness.filter.expected-users:1000000}") long expectedUsers,
+                            @Value("${uniqueness.filter.false-positive-probability:0.01}") double falsePositiveProbability) {
+        this(expectedUsers, falsePositiveProbability, Metrics.globalRegistry);
+    }
+
+    UniquenessFilter(long expectedUsers, double falsePositiveProbability, MeterRegistry registry) {
+        this.usernames = new BloomFilter(expectedUsers, falsePositiveProbability);
+        this.names = new BloomFilter(expectedUsers, falsePositiveProbability);
+        this.registry = registry;
+
+        registerGauges("username", usernames);
+        registerGauges("name", names);
+    }
+
+    // called once the usernames and names of all users were added
+    public void completeWarmUp() {
+        warmedUp = true;
+    }
+
+    /**
+     * Remembers the username and name of a user that is about to be saved
+     * @param username username; ignored if null
+     * @param name name; ignored if null
+     */
+    public void add(String username, String name) {
+        if (username != null) {
+            usernames.put(username);
+        }
+        if (name != null) {
+            names.put(name);
+        }
+    }
+
+    public boolean mightContainUsername(String username) {
+        return !warmedUp || username == null || usernames.mightContain(username);
+    }
+
+    public boolean mightContainName(String name) {
+        return !warmedUp || name == null || names.mightContain(name);
+    }
+
+    /**
+     * @param username username of a new user
+     * @param query checks in the USER table if the username is taken; only called if the filter cannot rule it out
+     * @return true if the username is taken
+     */
+    public boolean isUsernameTaken(String username, Predicate<String> query) {
+        return isTaken("username", mightContainUsername(username), username, query);
+    }
+
+    public boolean isNameTaken(String name, Predicate<String> query) {
+        return isTaken("name", mightContainName(name), name, query);
+    }
+
+    private boolean isTaken(String filter, boolean mightContain, String value, Predicate<String> query) {
+        if (!mightContain) {
+            count(filter, "skipped");
+            return false;
+        }
+        boolean taken = query.test(value);
+        count(filter, taken ? "taken" : warmedUp ? "false_positive" : "not_filtered");
+        return taken;
+    }
+
+    private void count(String filter, String outcome) {
+        Counter.builder("uniqueness.filter.checks")
+                .description("Uniqueness checks by whether the query was skipped, found the value or was a false positive of the filter")
+                .tags("filter", filter, "outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    private void registerGauges(String filter, BloomFilter bloomFilter) {
+        Gauge.builder("uniqueness.filter.false.positive.probability", bloomFilter, BloomFilter::getFalsePositiveProbability)
+                .description("Estimated false positive probability of the filter with its current fill")
+                .tag("filter", filter)
+                .register(registry);
+        Gauge.builder("uniqueness.filter.memory", bloomFilter, BloomFilter::getSizeInBytes)
+                .description("Memory used by the bits of the filter")
+                .baseUnit("bytes")
+                .tag("filter", filter)
+                .register(registry);
+    }
+}
@@ -0,0 +1,78 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import ch.uzh.ifi.hase.soprafs21.event.UserUpdatedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * User Change Log
+ * This class remembers which users were created or changed, in the order the changes were committed
+ * (status changes in the order they were recorded, they are written to the table later).
+ * It is a ring buffer of user IDs: the cursor is the number of changes recorded so far and a client that
+ * knows a cursor can ask for all users changed since then. Only the last capacity changes are kept;
+ * a client whose cursor is older than that has to fetch the full user list again.
+ * The log starts empty with every start of the application and every instance has its own; the epoch
+ * tells the logs apart, so a cursor is only valid together with the epoch it was handed out with.
+ */
+@Component
+public class UserChangeLog {
+
+    private final long[] ids;
+
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+
+    // number of changes recorded so far; guarded by this
+    private long cursor;
+
+    public UserChangeLog(@Value("${sync.change-log-capacity:100000}") int capacity) {
+        this.ids = new long[capacity];
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onStatusChanged(UserStatusChangedEvent event) {
+        append(event.getId());
+    }
+
+    @TransactionalEventListener
+    public void onUpdated(UserUpdatedEvent event) {
+        append(event.getId());
+    }
+
+    public synchronized void append(long id) {
+        ids[(int) (cursor % ids.length)] = id;
+        cursor++;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public synchronized long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @param since cursor the client got with its last sync
+     * @return IDs of the users changed since then, each only once, or null if the changes are not kept anymore
+     */
+    public synchronized Set<Long> getChangedSince(long since) {
+        if (since < 0 || since > cursor) {
+            throw new IllegalArgumentException("Unknown cursor " + since);
+        }
+        if (cursor - since > ids.length) {
+            return null;
+        }
+
+        Set<Long> changed = new LinkedHashSet<>();
+        for (long i = since; i < cursor; i++) {
+            changed.add(ids[(int) (i % ids.length)]);
+        }
+        return changed;
+    }
+}
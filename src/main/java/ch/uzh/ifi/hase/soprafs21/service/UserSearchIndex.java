@@ -0,0 +1,183 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.event.UserUpdatedEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * User Search Index
+ * This class keeps the usernames and names of all users in memory, so users can be searched without a query.
+ * The terms are lower case and kept sorted, so all terms with a given prefix are one range of the sorted set.
+ * Every term is stored as "term\0id"; the same term can belong to several users.
+ * A name is indexed as a whole and by each of its further words, so "Ada Lovelace" is found by "ada" and "love".
+ * Typo tolerant searches also match terms whose prefix is one edit (insertion, deletion, substitution or
+ * transposition) away from the query. The edits are generated from the characters that actually follow
+ * each prefix in the index, so a search is a few range lookups instead of a scan over all users.
+ * The index is filled from the USER table at startup (see UserWarmUp) and updated once changes to a user are committed;
+ * until it was filled, it is not ready and searches would miss users.
+ */
+@Component
+public class UserSearchIndex {
+
+    private static final char SEPARATOR = '\0';
+
+    private final NavigableSet<String> entries = new ConcurrentSkipListSet<>();
+
+    // terms and entries of each user, to remove them again once the user changes
+    private final Map<Long, UserTerms> termsByUser = new ConcurrentHashMap<>();
+
+    private volatile boolean ready;
+
+    /**
+     * Adds a user read at startup; users that changed since the startup are already indexed with their newer values
+     */
+    public void putIfAbsent(long id, String username, String name) {
+        termsByUser.computeIfAbsent(id, key -> addEntries(key, username, name));
+    }
+
+    // called once all users were added
+    public void completeWarmUp() {
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @TransactionalEventListener
+    public void onUpdated(UserUpdatedEvent event) {
+        put(event.getId(), event.getUsername(), event.getName());
+    }
+
+    /**
+     * Adds a user to the index or replaces its old username and name
+     * @param username new username; if null the indexed username is kept
+     * @param name new name; if null the indexed name is kept
+     */
+    public void put(long id, String username, String name) {
+        termsByUser.compute(id, (key, oldTerms) -> {
+            if (oldTerms == null) {
+                return addEntries(key, username, name);
+            }
+            entries.removeAll(oldTerms.entries);
+            return addEntries(key, username == null ? oldTerms.username : username, name == null ? oldTerms.name : name);
+        });
+    }
+
+    public int size() {
+        return termsByUser.size();
+    }
+
+    /**
+     * @param query start of a username, of a name or of a word in a name; the case is ignored
+     * @param limit maximum number of users returned
+     * @param fuzzy true if terms that start with one typo compared to the query also match
+     * @return IDs of the matching users, the ones matching the query exactly first
+     */
+    public List<Long> search(String query, int limit, boolean fuzzy) {
+        String prefix = normalize(query);
+        Set<Long> found = new LinkedHashSet<>();
+        if (prefix.isEmpty() || limit < 1) {
+            return new ArrayList<>(found);
+        }
+
+        collect(prefix, found, limit);
+        if (fuzzy) {
+            for (int i = 0; i <= prefix.length() && found.size() < limit; i++) {
+                collectEdits(prefix, i, found, limit);
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Collects the matches of all edits of the query at position i.
+     * Insertions and substitutions only use the characters that follow the first i characters in the index.
+     */
+    private void collectEdits(String prefix, int i, Set<Long> found, int limit) {
+        String head = prefix.substring(0, i);
+
+        // deletion and transposition
+        if (i < prefix.length()) {
+            collect(head + prefix.substring(i + 1), found, limit);
+        }
+        if (i + 1 < prefix.length()) {
+            collect(head + prefix.charAt(i + 1) + prefix.charAt(i) + prefix.substring(i + 2), found, limit);
+        }
+
+        // jump from one following character to the next one instead of walking over all terms
+        String entry = entries.ceiling(head);
+        while (entry != null && entry.startsWith(head) && found.size() < limit) {
+            char next = entry.charAt(i);
+            if (next != SEPARATOR) {
+                // insertion and substitution
+                collect(head + next + prefix.substring(i), found, limit);
+                if (i < prefix.length()) {
+                    collect(head + next + prefix.substring(i + 1), found, limit);
+                }
+            }
+            entry = entries.ceiling(head + (char) (next + 1));
+        }
+    }
+
+    private void collect(String prefix, Set<Long> found, int limit) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        for (String entry : entries.subSet(prefix, true, prefix + Character.MAX_VALUE, true)) {
+            if (found.size() >= limit) {
+                return;
+            }
+            found.add(Long.parseLong(entry.substring(entry.lastIndexOf(SEPARATOR) + 1)));
+        }
+    }
+
+    private UserTerms addEntries(long id, String username, String name) {
+        String normalizedUsername = username == null ? null : normalize(username);
+        String normalizedName = name == null ? null : normalize(name);
+
+        Set<String> terms = new LinkedHashSet<>();
+        if (normalizedUsername != null) {
+            terms.add(normalizedUsername);
+        }
+        if (normalizedName != null) {
+            terms.add(normalizedName);
+
+            // the first word is already covered by the whole name
+            String[] words = normalizedName.split("\\s+");
+            terms.addAll(Arrays.asList(words).subList(Math.min(1, words.length), words.length));
+        }
+        terms.remove("");
+
+        List<String> userEntries = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            String entry = term + SEPARATOR + id;
+            entries.add(entry);
+            userEntries.add(entry);
+        }
+        return new UserTerms(normalizedUsername, normalizedName, userEntries);
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class UserTerms {
+
+        private final String username;
+
+        private final String name;
+
+        private final List<String> entries;
+
+        private UserTerms(String username, String name, List<String> entries) {
+            this.username = username;
+            this.name = name;
+            this.entries = entries;
+        }
+    }
+}
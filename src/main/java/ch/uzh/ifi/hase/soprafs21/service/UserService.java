@@ -1,24 +1,49 @@
 package ch.uzh.ifi.hase.soprafs21.service;
 
+import ch.uzh.ifi.hase.soprafs21.config.ReadWriteRoutingDataSource;
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import ch.uzh.ifi.hase.soprafs21.event.UserUpdatedEvent;
 import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import ch.uzh.ifi.hase.soprafs21.repository.UserTableVersion;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * User Service
  * This class is the "worker" and responsible for all functionality related to the user
  * (e.g., it creates, modifies, deletes, finds). The result will be passed back to the caller.
+ * Methods that only read run in read-only transactions: Hibernate then keeps no snapshots for dirty checking
+ * and never flushes. With a configured read replica only the listings (all users, pages, searches and changes) read
+ * from the replica; every other read, e.g. the uniqueness checks and the logins, has to see the latest writes
+ * and stays on the primary database.
+ * Passwords are hashed and verified outside of any transaction, so no database connection is held
+ * while the expensive key derivation runs; these methods read and write in short transactions of their own.
+ * Status changes of logins, logouts and expired sessions are only recorded in memory and written to the repo
+ * in batches later (see StatusWriteBehind); users read from the repo get the status that was not written yet.
  */
 @Service
 @Transactional
@@ -26,11 +51,53 @@ public class UserService {
 
     private final Logger log = LoggerFactory.getLogger(UserService.class);
 
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static final int MAX_BATCH_SIZE = 50000;
+
+    public static final int MAX_SEARCH_RESULTS = 100;
+
+    private static final int IN_CLAUSE_SIZE = 1000;
+
     private final UserRepo userRepo;
 
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final PasswordHasher passwordHasher;
+
+    private final UserChangeLog userChangeLog;
+
+    private final UserSearchIndex userSearchIndex;
+
+    private final SessionExpiry sessionExpiry;
+
+    private final UniquenessFilter uniquenessFilter;
+
+    private final TokenCache tokenCache;
+
+    private final StatusWriteBehind statusWriteBehind;
+
+    private final TransactionTemplate transaction;
+
+    private final TransactionTemplate readOnlyTransaction;
+
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepo userRepo) {
+    public UserService(@Qualifier("userRepository") UserRepo userRepo, ApplicationEventPublisher eventPublisher,
+                       PasswordHasher passwordHasher, UserChangeLog userChangeLog, UserSearchIndex userSearchIndex,
+                       SessionExpiry sessionExpiry, UniquenessFilter uniquenessFilter, TokenCache tokenCache,
+                       StatusWriteBehind statusWriteBehind, PlatformTransactionManager transactionManager) {
         this.userRepo = userRepo;
+        this.eventPublisher = eventPublisher;
+        this.passwordHasher = passwordHasher;
+        this.userChangeLog = userChangeLog;
+        this.userSearchIndex = userSearchIndex;
+        this.sessionExpiry = sessionExpiry;
+        this.uniquenessFilter = uniquenessFilter;
+        this.tokenCache = tokenCache;
+        this.statusWriteBehind = statusWriteBehind;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
     }
 
     /**
@@ -38,13 +105,17 @@ public class UserService {
      * @param userID ID of the user that has to be updated
      * @param newUsername new Username; if null will not get changed
      * @param newBirthdayDate new BirthDayDate; if null will not get changed
+     * @param expectedVersions versions the client based its changes on, any of them matches; if null the version is not checked
      */
-    public void updateUser(Long userID, String newUsername, String newBirthdayDate){
-        //fetch user to update
-        User fetched = getUser(userID);
-
-        if (fetched == null){
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+    public void updateUser(Long userID, String newUsername, String newBirthdayDate, Collection<Long> expectedVersions){
+        // fetch the user to update without its pending status: the entity is managed here,
+        // so that status would be written with the changes
+        User fetched = userRepo.findById(userID)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+
+        // the user was changed since the client fetched it
+        if (expectedVersions != null && !expectedVersions.contains(fetched.getVersion())){
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User was changed in the meantime");
         }
 
         // apply changes
@@ -56,10 +127,42 @@ public class UserService {
             fetched.setBirthDate(newBirthdayDate);
         }
 
+        uniquenessFilter.add(newUsername, null);
+
         // Save and flush the changed user
         userRepo.save(fetched);
         userRepo.flush();
 
+        eventPublisher.publishEvent(new UserUpdatedEvent(fetched.getId(), fetched.getUsername(), fetched.getName()));
+    }
+
+    /**
+     * Helper function to change only some information of a user, e.g. for PATCH requests.
+     * Unlike updateUser, the user is not loaded first: one UPDATE statement sets the changed columns
+     * and checks the version, so concurrent updates are detected without locking and without retries.
+     * A username that is already taken is rejected by the unique constraint.
+     * @param userID ID of the user that has to be updated
+     * @param newUsername new Username; if null will not get changed
+     * @param newBirthdayDate new BirthDayDate; if null will not get changed
+     * @param expectedVersions versions the client based its changes on, any of them matches; if null the version is not checked
+     */
+    public void patchUser(Long userID, String newUsername, String newBirthdayDate, Collection<Long> expectedVersions){
+        if (newUsername == null && newBirthdayDate == null){
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Nothing to update");
+        }
+
+        uniquenessFilter.add(newUsername, null);
+
+        if (userRepo.updateUser(userID, newUsername, newBirthdayDate, expectedVersions) == 0){
+            // either the user does not exist or it was changed since the client fetched it
+            if (!userRepo.existsById(userID)){
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+            }
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User was changed in the meantime");
+        }
+
+        // the name cannot be changed here
+        eventPublisher.publishEvent(new UserUpdatedEvent(userID, newUsername, null));
     }
 
     /**
@@ -67,27 +170,229 @@ public class UserService {
      * @param userID ID of the user to fetch
      * @return fetched user
      */
+    @Transactional(readOnly = true)
     public User getUser(Long userID){
-        User userByID = null;
+        // Look the user up by its primary key instead of scanning the whole repo
+        // If no user is found, throw 404 Error
+        return userRepo.findById(userID)
+                .map(this::withCurrentStatus)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+    }
 
-        // Search for user in repo
-        List<User> usersByUsername = userRepo.findAll();
+    /**
+     * Helper function to check if a token belongs to a logged in user.
+     * Recently used tokens are answered by the token cache; no transaction is started for them.
+     * @param token token sent by the client
+     * @return true if a user with this token exists and its session has not expired
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public boolean isTokenValid(String token){
+        TokenCache.CachedUser user = findByToken(token);
 
-        for (User user: usersByUsername){
-            if (user.getId().equals(userID)){
-                userByID = user;
-            }
+        // every authenticated request counts as activity, so clients without heartbeats stay logged in while used
+        return user != null && user.getStatus() == UserStatus.ONLINE && sessionExpiry.touch(user.getId());
+    }
+
+    /**
+     * Keeps the session of a logged in user alive
+     * @param token token sent by the client
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public void heartbeat(String token){
+        TokenCache.CachedUser user = findByToken(token);
+
+        if (user == null || user.getStatus() != UserStatus.ONLINE || !sessionExpiry.touch(user.getId())){
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Session expired, log in again");
         }
+    }
 
-        // If no user is found, throw 400 Error
-        if (userByID == null){
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+    /**
+     * Helper function to find the user a token belongs to, first in the token cache
+     * @param token token sent by the client; may be null
+     * @return ID and status of the user or null if the token is unknown
+     */
+    private TokenCache.CachedUser findByToken(String token){
+        // token is a unique column, so a miss is an index lookup
+        return token == null ? null : tokenCache.get(token, t -> withCurrentStatus(userRepo.findByToken(t)));
+    }
+
+    /**
+     * Sets all users whose session expired to OFFLINE, runs once per tick of the session timing wheel.
+     * The users are written with the next flush of the write-behind instead of loading and saving each of them.
+     * Users that logged in again since their session expired are left out.
+     */
+    @Scheduled(fixedDelayString = "${session.tick-ms:1000}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void expireSessions(){
+        List<Long> expiredIDs = sessionExpiry.poll();
+        if (expiredIDs.isEmpty()) {
+            return;
         }
-        return userByID;
+
+        sessionExpiry.expire(expiredIDs, ids -> {
+            for (Long id : ids) {
+                changeStatus(id, UserStatus.OFFLINE);
+            }
+            log.debug("Expired {} sessions", ids.size());
+        });
     }
 
+    @Transactional(readOnly = true)
     public List<User> getUsers() {
-        return this.userRepo.findAll();
+        List<User> users = this.userRepo.findAll();
+        users.forEach(this::withCurrentStatus);
+        return users;
+    }
+
+    /**
+     * Helper function to fetch all users as they are listed by the API, without their token and password.
+     * The DTOs are built by the query itself, no user entities are loaded.
+     * @return all users
+     */
+    @Transactional(readOnly = true)
+    public List<UserGetNoTokenDTO> getUserSummaries() {
+        return ReadWriteRoutingDataSource.onReplica(() -> withCurrentStatus(this.userRepo.findAllSummaries()));
+    }
+
+    /**
+     * Helper function to pass all users, as they are listed by the API, one by one to a consumer,
+     * e.g. to write them to a response while they are read. The rows are fetched in chunks, so the users are
+     * never all held in memory; the transaction and its connection stay open until the last user was consumed.
+     * @param consumer receives the users ordered by their ID
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void streamUserSummaries(Consumer<UserGetNoTokenDTO> consumer) {
+        // the stream reads from an open result set, so it has to be consumed within the transaction
+        readOnlyTransaction.executeWithoutResult(status -> ReadWriteRoutingDataSource.onReplica(() -> {
+            try (Stream<UserGetNoTokenDTO> users = userRepo.streamAllSummaries()) {
+                users.forEach(user -> {
+                    UserStatus pendingStatus = statusWriteBehind.getPendingStatus(user.getId());
+                    if (pendingStatus != null) {
+                        user.setStatus(pendingStatus);
+                    }
+                    consumer.accept(user);
+                });
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Helper function to get a value that changes whenever any user is created or updated,
+     * e.g. to check if a client's copy of the user list is still up to date
+     * @return version of the whole user table, including the status changes not written yet
+     */
+    @Transactional(readOnly = true)
+    public String getUsersVersion() {
+        // read from the same database as the listing, so the version never runs ahead of the users
+        UserTableVersion tableVersion = ReadWriteRoutingDataSource.onReplica(userRepo::findTableVersion);
+        return tableVersion.getUsers() + "-" + tableVersion.getVersions() + "-" + tableVersion.getMaxId()
+                + "-" + statusWriteBehind.getChangeCount();
+    }
+
+    /**
+     * Helper function to get the cursor for a later sync with getUsersChangedSince
+     * @return cursor covering all changes committed so far, of the form "epoch-position"
+     */
+    public String getChangeCursor() {
+        return userChangeLog.getEpoch() + "-" + userChangeLog.getCursor();
+    }
+
+    /**
+     * Helper function to fetch only the users that were created or changed since a client's last sync
+     * @param cursor cursor the client got with its last sync
+     * @return users created, updated or with a changed status since then
+     */
+    @Transactional(readOnly = true)
+    public List<User> getUsersChangedSince(String cursor) {
+        int separator = cursor.lastIndexOf('-');
+        long position;
+        try {
+            position = Long.parseLong(cursor.substring(separator + 1));
+        }
+        catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown cursor");
+        }
+        if (separator <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown cursor");
+        }
+
+        // the cursor was handed out before a restart or by another instance, its positions mean nothing here
+        if (!cursor.substring(0, separator).equals(userChangeLog.getEpoch())) {
+            throw new ResponseStatusException(HttpStatus.GONE, "Cursor is from another change log, fetch all users again");
+        }
+        if (position < 0 || position > userChangeLog.getCursor()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown cursor");
+        }
+        Set<Long> changedIDs = userChangeLog.getChangedSince(position);
+
+        // the changes since this cursor are not kept anymore -> the client has to fetch all users again
+        if (changedIDs == null) {
+            throw new ResponseStatusException(HttpStatus.GONE, "Cursor is too old, fetch all users again");
+        }
+
+        // fetched in chunks, so the IN clause of the query stays small
+        List<Long> ids = new ArrayList<>(changedIDs);
+        List<User> changedUsers = new ArrayList<>(ids.size());
+        ReadWriteRoutingDataSource.onReplica(() -> {
+            for (int from = 0; from < ids.size(); from += IN_CLAUSE_SIZE) {
+                changedUsers.addAll(userRepo.findAllById(ids.subList(from, Math.min(from + IN_CLAUSE_SIZE, ids.size()))));
+            }
+            return changedUsers;
+        });
+        changedUsers.forEach(this::withCurrentStatus);
+        return changedUsers;
+    }
+
+    /**
+     * Helper function to fetch one page of users ordered by their ID, as they are listed by the API
+     * @param afterID ID of the last user of the previous page; if null the first page is fetched
+     * @param limit maximum number of users in the page
+     * @return users with an ID greater than afterID
+     */
+    @Transactional(readOnly = true)
+    public List<UserGetNoTokenDTO> getUserSummaries(Long afterID, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("The limit has to be between 1 and %d", MAX_PAGE_SIZE));
+        }
+        long after = afterID == null ? 0L : afterID;
+
+        return ReadWriteRoutingDataSource.onReplica(() ->
+                withCurrentStatus(this.userRepo.findSummariesByIdGreaterThan(after, PageRequest.of(0, limit))));
+    }
+
+    /**
+     * Helper function to search users by the start of their username, their name or a word of their name.
+     * The matching users are looked up in the in-memory search index and only they are fetched.
+     * @param query start of the username or name; the case is ignored
+     * @param limit maximum number of users returned
+     * @param fuzzy true if usernames and names with one typo compared to the query also match
+     * @return matching users, exact matches first
+     */
+    @Transactional(readOnly = true)
+    public List<UserGetNoTokenDTO> searchUsers(String query, int limit, boolean fuzzy) {
+        if (query == null || query.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The search query must not be empty");
+        }
+        if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("The limit has to be between 1 and %d", MAX_SEARCH_RESULTS));
+        }
+        if (!userSearchIndex.isReady()) {
+            // the index is still filled at startup and would miss users
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The search is not ready yet, try again later");
+        }
+        List<Long> ids = userSearchIndex.search(query, limit, fuzzy);
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // keep the order of the index
+        Map<Long, UserGetNoTokenDTO> found = new HashMap<>();
+        // users just created may be missing on the replica yet, they are left out
+        for (UserGetNoTokenDTO user : withCurrentStatus(ReadWriteRoutingDataSource.onReplica(() -> userRepo.findSummariesByIdIn(ids)))) {
+            found.put(user.getId(), user);
+        }
+        return ids.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     /**
@@ -95,55 +400,197 @@ public class UserService {
      * @param newUser User to be created
      * @return The user that was created
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User createUser(User newUser) {
-        /* Initialize Date formatter */
-        SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-
-        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setToken(TokenGenerator.nextToken());
         newUser.setStatus(UserStatus.OFFLINE);
-        newUser.setCreationDate(formatter.format(new Date()));
+        newUser.setCreationDate(LocalDateTime.now());
 
-        checkIfUserExists(newUser);
+        readOnlyTransaction.executeWithoutResult(status -> checkIfUserExists(newUser));
         newUser.setStatus(UserStatus.ONLINE);
 
-        // saves the given entity but data is only persisted in the database once flush() is called
-        newUser = userRepo.save(newUser);
-        userRepo.flush();
+        // only hash once the user is known to be unique, hashing is expensive
+        newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
+
+        // remembered before the user is saved, so a registration right after this one cannot skip the check
+        uniquenessFilter.add(newUser.getUsername(), newUser.getName());
+
+        User createdUser = transaction.execute(status -> {
+            // saves the given entity but data is only persisted in the database once flush() is called
+            User savedUser = userRepo.save(newUser);
+            userRepo.flush();
 
-        log.debug("Created Information for User: {}", newUser);
-        return newUser;
+            eventPublisher.publishEvent(new UserUpdatedEvent(savedUser.getId(), savedUser.getUsername(), savedUser.getName()));
+            eventPublisher.publishEvent(new UserStatusChangedEvent(savedUser.getId(), savedUser.getStatus()));
+            return savedUser;
+        });
+        sessionExpiry.start(createdUser.getId());
+
+        log.debug("Created Information for User: {}", createdUser);
+        return createdUser;
     }
 
     /**
-     * This is a helper method that checks the entered credentials of a user,
-     * throws an exception if credentials are not valid
-     * @param userToLogin login credentials of a user
+     * Helper function to create many users at once, e.g. for imports.
+     * The uniqueness of all usernames and names is checked with set-based queries instead of two queries per user
+     * and the users are inserted in JDBC batches. A user that cannot be created does not abort the batch,
+     * not even if its username or name was registered concurrently after the check.
+     * The created users are OFFLINE until they log in for the first time.
+     * @param newUsers Users to be created; the created users get their ID assigned
+     * @return The reason why a user could not be created, by the index of the user in newUsers
      */
-    public User checkLoginCredentials(User userToLogin){
-        User userByUsername = null;
-        List<User> allUsers = userRepo.findAll();
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Map<Integer, String> createUsers(List<User> newUsers) {
+        if (newUsers.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("At most %d users can be created at once", MAX_BATCH_SIZE));
+        }
+        Set<String> takenUsernames = readOnlyTransaction.execute(status ->
+                findExisting(newUsers, User::getUsername, uniquenessFilter::mightContainUsername, userRepo::findExistingUsernames));
+        Set<String> takenNames = readOnlyTransaction.execute(status ->
+                findExisting(newUsers, User::getName, uniquenessFilter::mightContainName, userRepo::findExistingNames));
+
+        LocalDateTime creationDate = LocalDateTime.now();
+        Map<Integer, String> conflicts = new HashMap<>();
+        List<User> usersToSave = new ArrayList<>(newUsers.size());
+        Map<User, Integer> indexes = new IdentityHashMap<>();
+
+        for (int i = 0; i < newUsers.size(); i++) {
+            User newUser = newUsers.get(i);
+
+            if (newUser.getUsername() == null || newUser.getName() == null || newUser.getPassword() == null) {
+                conflicts.put(i, "The name, username and password have to be provided. Therefore, the user could not be created!");
+                continue;
+            }
+
+            // a username or name is also taken if an earlier user of the same batch uses it
+            String errorMessage = getUniquenessError(takenUsernames.contains(newUser.getUsername()), takenNames.contains(newUser.getName()));
+            if (errorMessage != null) {
+                conflicts.put(i, errorMessage);
+                continue;
+            }
+            takenUsernames.add(newUser.getUsername());
+            takenNames.add(newUser.getName());
+
+            newUser.setToken(TokenGenerator.nextToken());
+            newUser.setStatus(UserStatus.OFFLINE);
+            newUser.setCreationDate(creationDate);
+            usersToSave.add(newUser);
+            indexes.put(newUser, i);
+        }
+
+        // hash the passwords of all users in parallel on the hashing pool, before the transaction starts
+        List<String> passwords = usersToSave.stream().map(User::getPassword).collect(Collectors.toList());
+        List<String> hashes = passwordHasher.hashAll(passwords);
+        for (int i = 0; i < usersToSave.size(); i++) {
+            usersToSave.get(i).setPassword(hashes.get(i));
+        }
+
+        for (User newUser : usersToSave) {
+            uniquenessFilter.add(newUser.getUsername(), newUser.getName());
+        }
+
+        // A user registered concurrently since the check may take a username or name of the batch: the insert
+        // then fails as a whole. The users that conflict now are reported and the others are inserted again.
+        List<User> remaining = usersToSave;
+        while (!remaining.isEmpty()) {
+            try {
+                insertAll(remaining);
+                break;
+            }
+            catch (DataIntegrityViolationException e) {
+                List<User> failed = remaining;
+                Set<String> usernamesTakenNow = readOnlyTransaction.execute(status ->
+                        findExisting(failed, User::getUsername, username -> true, userRepo::findExistingUsernames));
+                Set<String> namesTakenNow = readOnlyTransaction.execute(status ->
+                        findExisting(failed, User::getName, name -> true, userRepo::findExistingNames));
+
+                remaining = new ArrayList<>(failed.size());
+                for (User newUser : failed) {
+                    String errorMessage = getUniquenessError(usernamesTakenNow.contains(newUser.getUsername()), namesTakenNow.contains(newUser.getName()));
+                    if (errorMessage != null) {
+                        conflicts.put(indexes.get(newUser), errorMessage);
+                    }
+                    else {
+                        remaining.add(newUser);
+                    }
+                }
+
+                // no user conflicts -> the insert failed for another reason
+                if (remaining.size() == failed.size()) {
+                    throw e;
+                }
+                log.debug("{} users of the batch were registered concurrently, inserting the others again", failed.size() - remaining.size());
+            }
+        }
 
-        // Fetch all users and search for username
-        for (User user: allUsers){
-            if (user.getUsername().equals(userToLogin.getUsername())){
-                userByUsername = user;
+        log.debug("Created {} users, {} could not be created", remaining.size(), conflicts.size());
+        return conflicts;
+    }
+
+    /**
+     * Helper function to insert new users in one transaction, in JDBC batches
+     * @param newUsers users to be inserted; if the insert fails, they are reset to be inserted again
+     */
+    private void insertAll(List<User> newUsers) {
+        try {
+            transaction.executeWithoutResult(status -> {
+                // the ids come from a pooled sequence, so Hibernate can send the inserts in JDBC batches
+                userRepo.saveAll(newUsers);
+                userRepo.flush();
+
+                for (User createdUser : newUsers) {
+                    eventPublisher.publishEvent(new UserUpdatedEvent(createdUser.getId(), createdUser.getUsername(), createdUser.getName()));
+                }
+            });
+        }
+        catch (DataIntegrityViolationException e) {
+            // the rolled back insert assigned ids and versions; without them the users count as new again
+            for (User newUser : newUsers) {
+                newUser.setId(null);
+                newUser.setVersion(null);
             }
+            throw e;
         }
+    }
+
+    /**
+     * This is a helper method that checks the entered credentials of a user,
+     * throws an exception if credentials are not valid.
+     * The user is looked up in a short read-only transaction and the password is verified after it ended;
+     * only a rehashed password is written in a second short transaction, the status goes to the write-behind.
+     * Every login starts a new session, also if the user is still ONLINE from an earlier login.
+     * @param userToLogin login credentials of a user
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public User checkLoginCredentials(User userToLogin){
+        // username is a unique column, so this is an index lookup
+        User userByUsername = readOnlyTransaction.execute(status -> userRepo.findByUsername(userToLogin.getUsername()));
 
         String password = userToLogin.getPassword();
 
         // Check if a user was found and if its password is valid
-        boolean valid = userByUsername != null && userByUsername.getPassword().equals(password);
+        boolean valid = userByUsername != null && passwordHasher.verify(password, userByUsername.getPassword());
 
         // Throw exception if credentials are not valid
         if (!valid){
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Username or Password false");
         }
-        userByUsername.setStatus(UserStatus.ONLINE);
-        User mappedUser = userRepo.save(userByUsername);
-        userRepo.flush();
 
-        return mappedUser;
+        // Replace legacy plain text passwords and hashes with an outdated cost factor
+        String rehashedPassword = passwordHasher.needsRehash(userByUsername.getPassword()) ? passwordHasher.hash(password) : null;
+
+        if (rehashedPassword != null){
+            transaction.executeWithoutResult(status -> userRepo.findById(userByUsername.getId())
+                    .ifPresent(user -> user.setPassword(rehashedPassword)));
+            userByUsername.setPassword(rehashedPassword);
+        }
+
+        // started before the status is recorded, so a session expiring right now cannot set the user OFFLINE afterwards
+        sessionExpiry.start(userByUsername.getId());
+
+        changeStatus(userByUsername.getId(), UserStatus.ONLINE);
+        userByUsername.setStatus(UserStatus.ONLINE);
+        return userByUsername;
     }
 
     /**
@@ -151,41 +598,119 @@ public class UserService {
      * @param userToLogOut local storage user
      * @return mappedUser in Repo
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User getUserToLogOut(User userToLogOut){
         // Find user in repo
-        User mappedUser = userRepo.findByToken(userToLogOut.getToken());
+        User mappedUser = readOnlyTransaction.execute(status -> userRepo.findByToken(userToLogOut.getToken()));
+
+        if (mappedUser == null){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        }
 
         // Set its status to OFFLINE
+        changeStatus(mappedUser.getId(), UserStatus.OFFLINE);
         mappedUser.setStatus(UserStatus.OFFLINE);
 
-        // Save new Status
-        mappedUser = userRepo.save(mappedUser);
-        userRepo.flush();
-
         return mappedUser;
     }
 
+    /**
+     * Helper function to switch the status of a user without a transaction.
+     * The change is recorded in the write-behind and subscribed clients are notified right away.
+     * It is recorded even if the user seems to have this status already: the status read before
+     * might be outdated by a concurrent login, logout or expired session.
+     * @param userID ID of the user
+     * @param status new status
+     */
+    private void changeStatus(long userID, UserStatus status){
+        statusWriteBehind.record(userID, status);
+        eventPublisher.publishEvent(new UserStatusChangedEvent(userID, status));
+    }
+
+    /**
+     * Helper function to replace the status of a user read from the repo with its status that was not written yet.
+     * Only call it for users that are not changed in the current transaction otherwise.
+     * @param user user read from the repo; may be null
+     * @return the same user
+     */
+    private User withCurrentStatus(User user){
+        UserStatus pendingStatus = user == null ? null : statusWriteBehind.getPendingStatus(user.getId());
+        if (pendingStatus != null){
+            user.setStatus(pendingStatus);
+        }
+        return user;
+    }
+
+    private List<UserGetNoTokenDTO> withCurrentStatus(List<UserGetNoTokenDTO> users){
+        if (statusWriteBehind.getPendingCount() == 0){
+            return users;
+        }
+        for (UserGetNoTokenDTO user : users){
+            UserStatus pendingStatus = statusWriteBehind.getPendingStatus(user.getId());
+            if (pendingStatus != null){
+                user.setStatus(pendingStatus);
+            }
+        }
+        return users;
+    }
+
     /**
      * This is a helper method that will check the uniqueness criteria of the username and the name
      * defined in the User entity. The method will do nothing if the input is unique and throw an error otherwise.
+     * A username or name the uniqueness filter has never seen is unique without querying the repo.
      *
      * @param userToBeCreated
      * @throws org.springframework.web.server.ResponseStatusException
      * @see User
      */
     private void checkIfUserExists(User userToBeCreated) {
-        User userByUsername = userRepo.findByUsername(userToBeCreated.getUsername());
-        User userByName = userRepo.findByName(userToBeCreated.getName());
+        boolean usernameTaken = uniquenessFilter.isUsernameTaken(userToBeCreated.getUsername(), username -> userRepo.findByUsername(username) != null);
+        boolean nameTaken = uniquenessFilter.isNameTaken(userToBeCreated.getName(), name -> userRepo.findByName(name) != null);
 
+        String errorMessage = getUniquenessError(usernameTaken, nameTaken);
+        if (errorMessage != null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, errorMessage);
+        }
+    }
+
+    /**
+     * Helper function to describe which uniqueness criteria of the User entity are violated
+     * @param usernameTaken true if the username is already used
+     * @param nameTaken true if the name is already used
+     * @return error message or null if both are unique
+     */
+    private static String getUniquenessError(boolean usernameTaken, boolean nameTaken) {
         String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userByUsername != null && userByName != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "username and the name", "are"));
+        if (usernameTaken && nameTaken) {
+            return String.format(baseErrorMessage, "username and the name", "are");
         }
-        else if (userByUsername != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "username", "is"));
+        else if (usernameTaken) {
+            return String.format(baseErrorMessage, "username", "is");
         }
-        else if (userByName != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "name", "is"));
+        else if (nameTaken) {
+            return String.format(baseErrorMessage, "name", "is");
+        }
+        return null;
+    }
+
+    /**
+     * Helper function to find which values of an attribute are already used in the repo.
+     * The values are checked in chunks, so the IN clause of the query stays small.
+     * @param users users whose attribute is checked
+     * @param attribute attribute of the user, e.g. the username
+     * @param mightExist filter ruling out values that are not in the repo; only the other values are queried
+     * @param query repo query returning the values that already exist
+     * @return values that already exist in the repo
+     */
+    private static Set<String> findExisting(List<User> users, Function<User, String> attribute, Predicate<String> mightExist,
+                                            Function<Collection<String>, List<String>> query) {
+        List<String> values = users.stream().map(attribute).filter(Objects::nonNull).filter(mightExist)
+                .distinct().collect(Collectors.toList());
+        Set<String> existing = new HashSet<>();
+
+        for (int from = 0; from < values.size(); from += IN_CLAUSE_SIZE) {
+            existing.addAll(query.apply(values.subList(from, Math.min(from + IN_CLAUSE_SIZE, values.size()))));
         }
+        return existing;
     }
 }
@@ -0,0 +1,66 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * User Warm-Up
+ * This class fills the in-memory structures that need every user, the search index and the uniqueness filters,
+ * at startup. The USER table is read once, and the rows are streamed from the database in chunks, so the
+ * whole table is never held in memory at once.
+ * Until the warm-up completed, searches are rejected and every value counts as possibly taken.
+ */
+@Component
+public class UserWarmUp {
+
+    private final Logger log = LoggerFactory.getLogger(UserWarmUp.class);
+
+    private final UserRepo userRepo;
+
+    private final UserSearchIndex userSearchIndex;
+
+    private final UniquenessFilter uniquenessFilter;
+
+    private final TransactionTemplate readOnlyTransaction;
+
+    public UserWarmUp(@Qualifier("userRepository") UserRepo userRepo, UserSearchIndex userSearchIndex,
+                      UniquenessFilter uniquenessFilter, PlatformTransactionManager transactionManager) {
+        this.userRepo = userRepo;
+        this.userSearchIndex = userSearchIndex;
+        this.uniquenessFilter = uniquenessFilter;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        // the stream reads from an open result set, so it has to be consumed within the transaction;
+        // it reads from the primary database, a replica could still miss the users created last
+        Integer users = readOnlyTransaction.execute(status -> {
+            int count = 0;
+            try (Stream<Object[]> rows = userRepo.streamAllSearchTerms()) {
+                for (Iterator<Object[]> iterator = rows.iterator(); iterator.hasNext(); count++) {
+                    Object[] row = iterator.next();
+                    String username = (String) row[1];
+                    String name = (String) row[2];
+                    userSearchIndex.putIfAbsent((Long) row[0], username, name);
+                    uniquenessFilter.add(username, name);
+                }
+            }
+            return count;
+        });
+        userSearchIndex.completeWarmUp();
+        uniquenessFilter.completeWarmUp();
+        log.info("Added {} users to the search index and the uniqueness filters", users);
+    }
+}
@@ -0,0 +1,17 @@
+-- Schema of the User entity, see entity/User.java
+CREATE SEQUENCE user_sequence START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE USER (
+    id            BIGINT       NOT NULL,
+    name          VARCHAR(255) NOT NULL,
+    username      VARCHAR(255) NOT NULL,
+    token         VARCHAR(255) NOT NULL,
+    password      VARCHAR(255) NOT NULL,
+    status        INTEGER      NOT NULL,
+    creation_date VARCHAR(255) NOT NULL,
+    birth_date    VARCHAR(255),
+    version       BIGINT,
+    CONSTRAINT pk_user PRIMARY KEY (id),
+    CONSTRAINT uk_user_username UNIQUE (username),
+    CONSTRAINT uk_user_token UNIQUE (token)
+);
@@ -0,0 +1,10 @@
+-- creation_date becomes a real timestamp, so it can be compared and used in range queries
+ALTER TABLE USER ADD COLUMN creation_timestamp TIMESTAMP;
+UPDATE USER SET creation_timestamp = PARSEDATETIME(creation_date, 'dd-MM-yyyy HH:mm:ss');
+ALTER TABLE USER DROP COLUMN creation_date;
+ALTER TABLE USER ALTER COLUMN creation_timestamp RENAME TO creation_date;
+ALTER TABLE USER ALTER COLUMN creation_date SET NOT NULL;
+
+-- username and token are already indexed by their unique constraints
+CREATE INDEX idx_user_name ON USER (name);
+CREATE INDEX idx_user_status ON USER (status);
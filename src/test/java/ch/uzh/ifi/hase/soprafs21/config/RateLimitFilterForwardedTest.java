@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks against the real server that clients behind a proxy get a bucket each.
+ * The test client connects from localhost, an internal proxy, so the address in X-Forwarded-For is the client.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"rate-limit.requests-per-second=0.01", "rate-limit.burst=1"})
+public class RateLimitFilterForwardedTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Test
+    public void login_forwardedClients_limitedSeparately() throws Exception {
+        assertEquals(401, login("203.0.113.1"));
+        assertEquals(429, login("203.0.113.1"));
+
+        // another client behind the same proxy still has its own bucket
+        assertEquals(401, login("203.0.113.2"));
+    }
+
+    private int login(String client) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users/login"))
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header("X-Forwarded-For", client)
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\":\"unknown\",\"password\":\"password\"}"))
+                .build();
+
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
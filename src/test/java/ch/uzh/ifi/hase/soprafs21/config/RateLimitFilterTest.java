@@ -0,0 +1,146 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimitFilterTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void acquireToken_burstUsedUp_rejectsUntilRefilled() {
+        // 2 requests per second, bursts of 3
+        RateLimitFilter filter = new RateLimitFilter(2, 3, 10, 100, now::get, registry);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, filter.acquireToken("client"));
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), filter.acquireToken("client"));
+
+        // another client has its own bucket
+        assertEquals(0, filter.acquireToken("other client"));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, filter.acquireToken("client"));
+        assertTrue(filter.acquireToken("client") > 0);
+    }
+
+    @Test
+    public void doFilter_rateLimited_tooManyRequestsWithRetryAfter() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(1, 1, 10, 100, now::get, registry);
+
+        assertEquals(HttpStatus.OK.value(), post(filter, "/users/login", new MockFilterChain()).getStatus());
+
+        MockHttpServletResponse rejected = post(filter, "/users/login", new MockFilterChain());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), rejected.getStatus());
+        assertEquals("1", rejected.getHeader(HttpHeaders.RETRY_AFTER));
+
+        assertEquals(1.0, registry.counter("rate.limit.requests", "uri", "/users/login", "outcome", "admitted").count());
+        assertEquals(1.0, registry.counter("rate.limit.requests", "uri", "/users/login", "outcome", "rate_limited").count());
+    }
+
+    @Test
+    public void doFilter_tooManyConcurrentRequests_serviceUnavailable() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(100, 100, 1, 100, now::get, registry);
+
+        // the second request arrives while the first one is still handled
+        MockHttpServletResponse[] nested = new MockHttpServletResponse[1];
+        FilterChain slowChain = (request, response) -> nested[0] = post(filter, "/users", new MockFilterChain());
+
+        assertEquals(HttpStatus.OK.value(), post(filter, "/users", slowChain).getStatus());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), nested[0].getStatus());
+        assertNotNull(nested[0].getHeader(HttpHeaders.RETRY_AFTER));
+
+        // once the first request is done, requests are admitted again
+        assertEquals(HttpStatus.OK.value(), post(filter, "/users", new MockFilterChain()).getStatus());
+    }
+
+    @Test
+    public void doFilter_variantsOfPath_limitedLikeThePath() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(1, 1, 10, 100, now::get, registry);
+
+        assertEquals(HttpStatus.OK.value(), post(filter, "/users/login", new MockFilterChain()).getStatus());
+
+        // all of these reach the login handler, so they share the bucket of the client
+        for (String path : new String[] {"/users/login/", "/users/login;jsessionid=1", "//users//login"}) {
+            assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), post(filter, path, new MockFilterChain()).getStatus(), path);
+        }
+        assertEquals(3.0, registry.counter("rate.limit.requests", "uri", "/users/login", "outcome", "rate_limited").count());
+    }
+
+    @Test
+    public void doFilter_batchRegistration_limited() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(1, 1, 10, 100, now::get, registry);
+
+        assertEquals(HttpStatus.OK.value(), post(filter, "/users/batch", new MockFilterChain()).getStatus());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), post(filter, "/users/batch", new MockFilterChain()).getStatus());
+    }
+
+    @Test
+    public void acquireToken_tooManyClients_idleClientForgotten() {
+        // 2 requests per second, no bursts, at most 2 clients
+        RateLimitFilter filter = new RateLimitFilter(2, 1, 10, 2, now::get, registry);
+
+        assertEquals(0, filter.acquireToken("active"));
+        assertEquals(0, filter.acquireToken("idle"));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, filter.acquireToken("active"));
+
+        // the bucket of the idle client is full again and makes room; the active one is kept, although it is older
+        assertEquals(0, filter.acquireToken("new"));
+        assertEquals(2, filter.getTrackedClients());
+        assertTrue(filter.acquireToken("active") > 0);
+    }
+
+    @Test
+    public void acquireToken_manyClients_trackedClientsBounded() {
+        RateLimitFilter filter = new RateLimitFilter(1, 1, 10, 10, now::get, registry);
+
+        // every bucket is in use, so the oldest ones are forgotten anyway
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, filter.acquireToken("client" + i));
+        }
+        assertEquals(10, filter.getTrackedClients());
+    }
+
+    @Test
+    public void doFilter_otherEndpoints_notLimited() throws Exception {
+        RateLimitFilter filter = new RateLimitFilter(1, 1, 1, 100, now::get, registry);
+
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users");
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(request, response, new MockFilterChain());
+            assertEquals(HttpStatus.OK.value(), response.getStatus());
+        }
+    }
+
+    private static MockHttpServletResponse post(RateLimitFilter filter, String path, FilterChain chain)
+            throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+}
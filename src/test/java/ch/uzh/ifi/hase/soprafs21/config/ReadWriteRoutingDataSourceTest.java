@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadWriteRoutingDataSourceTest {
+
+    private final ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource();
+
+    @AfterEach
+    public void cleanup() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    public void readOnlyTransaction_primary() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertEquals(ReadWriteRoutingDataSource.PRIMARY, dataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    public void readOnlyTransaction_onReplica_replica() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertEquals(ReadWriteRoutingDataSource.REPLICA, ReadWriteRoutingDataSource.onReplica(dataSource::determineCurrentLookupKey));
+        // the hint only applies to the reads passed
+        assertEquals(ReadWriteRoutingDataSource.PRIMARY, dataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    public void readWriteTransaction_onReplica_primary() {
+        assertEquals(ReadWriteRoutingDataSource.PRIMARY, ReadWriteRoutingDataSource.onReplica(dataSource::determineCurrentLookupKey));
+    }
+}
@@ -0,0 +1,81 @@
+package ch.uzh.ifi.hase.soprafs21.config;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test class for the database metrics recorded per request.
+ *
+ * @see RequestMetricsInterceptor
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+public class RequestMetricsInterceptorTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    public void setup() {
+        userRepo.deleteAll();
+    }
+
+    @Test
+    public void getUser_recordsStatementsAndEntitiesOfRequest() throws Exception {
+        User user = new User();
+        user.setName("metricsName");
+        user.setUsername("metricsUsername");
+        user.setPassword("password");
+        user.setToken("metricsToken");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setCreationDate(LocalDateTime.now());
+        user = userRepo.saveAndFlush(user);
+
+        // the user has to be loaded from the database, not from the second-level cache
+        entityManagerFactory.getCache().evictAll();
+
+        DistributionSummary statements = summary("db.statements.per.request");
+        DistributionSummary entitiesLoaded = summary("db.entities.loaded.per.request");
+        long requestsBefore = statements.count();
+        double statementsBefore = statements.totalAmount();
+        double entitiesBefore = entitiesLoaded.totalAmount();
+
+        mockMvc.perform(get("/users/{userID}", user.getId())).andExpect(status().isOk());
+
+        // one request with one select by primary key, loading one user
+        assertEquals(requestsBefore + 1, statements.count());
+        assertEquals(statementsBefore + 1, statements.totalAmount());
+        assertEquals(entitiesBefore + 1, entitiesLoaded.totalAmount());
+    }
+
+    private static DistributionSummary summary(String name) {
+        // registered like the interceptor does, so the summary exists before the first request
+        return DistributionSummary.builder(name)
+                .tags("uri", "/users/{userID}", "method", "GET")
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -0,0 +1,76 @@
+package ch.uzh.ifi.hase.soprafs21.controller;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks against the real server that the user list is gzip compressed together with its ETag.
+ * Tomcat does not compress responses with a strong ETag, so the list has to carry a weak one.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UserControllerCompressionTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepo userRepo;
+
+    @BeforeEach
+    public void setup() {
+        userRepo.deleteAll();
+
+        // enough users for a list larger than server.compression.min-response-size
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            User user = new User();
+            user.setName("Firstname Lastname " + i);
+            user.setUsername("compression" + i);
+            user.setPassword("123");
+            user.setToken("compressionToken" + i);
+            user.setStatus(UserStatus.OFFLINE);
+            user.setCreationDate(LocalDateTime.now());
+            users.add(user);
+        }
+        userRepo.saveAll(users);
+    }
+
+    @Test
+    public void getUsers_acceptsGzip_compressedWithWeakETag() throws Exception {
+        // the JDK client does not decompress, so the headers are the ones the server sent
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users"))
+                .header(HttpHeaders.ACCEPT, "application/json")
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .GET()
+                .build();
+
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null));
+        assertTrue(response.headers().firstValue(HttpHeaders.ETAG).orElse("").startsWith("W/"));
+        assertTrue(response.headers().allValues(HttpHeaders.VARY).stream()
+                .flatMap(vary -> Arrays.stream(vary.split(",")))
+                .anyMatch(header -> header.trim().equalsIgnoreCase(HttpHeaders.ACCEPT)));
+    }
+}
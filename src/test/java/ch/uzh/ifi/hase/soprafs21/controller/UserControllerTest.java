@@ -2,30 +2,44 @@ package ch.uzh.ifi.hase.soprafs21.controller;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
 import ch.uzh.ifi.hase.soprafs21.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs21.service.PresenceService;
 import ch.uzh.ifi.hase.soprafs21.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.function.Consumer;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doThrow;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -42,6 +56,15 @@ public class UserControllerTest {
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private PresenceService presenceService;
+
+    @BeforeEach
+    public void setup() {
+        // every list of users comes with a sync cursor
+        given(userService.getChangeCursor()).willReturn("epoch-0");
+    }
+
 
 
     /*
@@ -55,7 +78,7 @@ public class UserControllerTest {
         userPostDTO.setUsername("Test User");
         userPostDTO.setBirthDate("testBirthday");
 
-        doThrow(new ResponseStatusException(HttpStatus.NOT_FOUND)).when(userService).updateUser(1L, userPostDTO.getUsername(), userPostDTO.getBirthDate());
+        doThrow(new ResponseStatusException(HttpStatus.NOT_FOUND)).when(userService).updateUser(1L, userPostDTO.getUsername(), userPostDTO.getBirthDate(), null);
 
         MockHttpServletRequestBuilder putRequest = put("/users/1")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -87,6 +110,85 @@ public class UserControllerTest {
 
     }
 
+    @Test
+    public void givenIfMatch_whenPutUser_thenVersionChecked() throws Exception{
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("Test User");
+
+        doThrow(new ResponseStatusException(HttpStatus.PRECONDITION_FAILED)).when(userService).updateUser(1L, "Test User", null, Collections.singleton(3L));
+
+        // the client has seen version 3 of the user
+        MockHttpServletRequestBuilder putRequest = put("/users/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"1-3\"")
+                .content(asJsonString(userPostDTO));
+
+        mockMvc.perform(putRequest).andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    public void givenIfMatch_whenPatchUser_thenOnlyChangedFieldsUpdated() throws Exception{
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setBirthDate("01.01.2000");
+
+        // the ETag of version 3 matches with any status
+        MockHttpServletRequestBuilder patchRequest = patch("/users/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "\"1-3-online-json\"")
+                .content(asJsonString(userPostDTO));
+
+        mockMvc.perform(patchRequest).andExpect(status().isNoContent());
+
+        Mockito.verify(userService).patchUser(1L, null, "01.01.2000", Collections.singleton(3L));
+    }
+
+    @Test
+    public void givenIfMatchList_whenPatchUser_thenStrongETagsOfUserChecked() throws Exception{
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setBirthDate("01.01.2000");
+
+        // weak ETags and ETags of other users never match
+        MockHttpServletRequestBuilder patchRequest = patch("/users/7")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "W/\"7-1\", \"5-3\", \"7-2\",\"7-4\"")
+                .content(asJsonString(userPostDTO));
+
+        mockMvc.perform(patchRequest).andExpect(status().isNoContent());
+
+        Mockito.verify(userService).patchUser(7L, null, "01.01.2000", new HashSet<>(Arrays.asList(2L, 4L)));
+    }
+
+    @Test
+    public void givenIfMatchOfOtherUser_whenPatchUser_thenPreconditionFailed() throws Exception{
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setBirthDate("01.01.2000");
+
+        for (String ifMatch : Arrays.asList("\"5-3\"", "W/\"7-3\"", "\"7-x\"")) {
+            MockHttpServletRequestBuilder patchRequest = patch("/users/7")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.IF_MATCH, ifMatch)
+                    .content(asJsonString(userPostDTO));
+
+            mockMvc.perform(patchRequest).andExpect(status().isPreconditionFailed());
+        }
+        Mockito.verifyNoInteractions(userService);
+    }
+
+    @Test
+    public void givenIfMatchAny_whenPutUser_thenVersionNotChecked() throws Exception{
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("Test User");
+
+        MockHttpServletRequestBuilder putRequest = put("/users/7")
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "*")
+                .content(asJsonString(userPostDTO));
+
+        mockMvc.perform(putRequest).andExpect(status().isNoContent());
+
+        Mockito.verify(userService).updateUser(7L, "Test User", null, null);
+    }
+
     /*
         Tests for GET Mappings
      */
@@ -136,18 +238,122 @@ public class UserControllerTest {
     }
 
     @Test
-    public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
+    public void givenUnchangedUser_whenGetUserWithETag_thenNotModified() throws Exception{
         // given
         User user = new User();
         user.setName("Firstname Lastname");
         user.setUsername("firstname@lastname");
+        user.setToken("testToken");
+        user.setId(1L);
+        user.setVersion(2L);
         user.setStatus(UserStatus.OFFLINE);
 
+        given(userService.getUser(user.getId())).willReturn(user);
 
-        List<User> allUsers = Collections.singletonList(user);
+        // first request -> full response with the ETag
+        mockMvc.perform(get("/users/1").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-2-offline-json\""))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)));
+
+        // second request with the ETag -> nothing changed, no body
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"1-2-offline-json\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)));
+
+        // the CBOR encoding of the same version is another representation with its own ETag
+        mockMvc.perform(get("/users/1").accept("application/cbor").header(HttpHeaders.IF_NONE_MATCH, "\"1-2-offline-json\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-2-offline-cbor\""));
+    }
 
-        // this mocks the UserService -> we define above what the userService should return when getUsers() is called
-        given(userService.getUsers()).willReturn(allUsers);
+    @Test
+    public void givenChangedStatus_whenGetUserWithETag_thenNewETag() throws Exception{
+        // given
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setToken("testToken");
+        user.setId(1L);
+        user.setVersion(2L);
+        user.setStatus(UserStatus.ONLINE);
+
+        // the user logged in since the client fetched it; the version stays the same
+        given(userService.getUser(user.getId())).willReturn(user);
+
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"1-2-offline-json\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-2-online-json\""))
+                .andExpect(jsonPath("$.status", is(UserStatus.ONLINE.toString())));
+    }
+
+    @Test
+    public void givenUnchangedUsers_whenGetUsersWithETag_thenNotModified() throws Exception {
+        given(userService.getUsersVersion()).willReturn("1-0-1");
+
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, "W/\"1-0-1\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"1-0-1\""))
+                .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)));
+
+        // the users are not even loaded
+        Mockito.verify(userService, Mockito.never()).getUserSummaries();
+    }
+
+    @Test
+    public void givenValidToken_whenGetSingleUser_thenReturnUser() throws Exception {
+        // given
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setToken("testToken");
+        user.setId(1L);
+        user.setStatus(UserStatus.ONLINE);
+
+        given(userService.getUser(user.getId())).willReturn(user);
+        given(userService.isTokenValid("testToken")).willReturn(true);
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/1/testToken")
+                .contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$.username", is(user.getUsername())))
+                .andExpect(jsonPath("$.token").doesNotExist());
+    }
+
+    @Test
+    public void givenInvalidToken_whenGetSingleUser_thenUnauthorized() throws Exception {
+        // given
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setId(1L);
+        user.setStatus(UserStatus.ONLINE);
+
+        given(userService.getUser(user.getId())).willReturn(user);
+        given(userService.isTokenValid("wrongToken")).willReturn(false);
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/1/wrongToken")
+                .contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
+        // given
+        UserGetNoTokenDTO user = new UserGetNoTokenDTO(1L, "Firstname Lastname", "firstname@lastname",
+                UserStatus.OFFLINE, LocalDateTime.of(2021, 1, 1, 12, 0), null);
+
+
+        List<UserGetNoTokenDTO> allUsers = Collections.singletonList(user);
+
+        // this mocks the UserService -> we define above what the userService should return when getUserSummaries() is called
+        given(userService.getUserSummaries()).willReturn(allUsers);
 
         // when
         MockHttpServletRequestBuilder getRequest = get("/users")
@@ -158,13 +364,163 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$", hasSize(1)))
                 .andExpect(jsonPath("$[0].name", is(user.getName())))
                 .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-                .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
+                .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())))
+                .andExpect(jsonPath("$[0].creationDate", is("01-01-2021 12:00:00")));
+    }
+
+    @Test
+    public void givenUsers_whenGetUsersAsCbor_thenReturnCbor() throws Exception {
+        // given
+        UserGetNoTokenDTO user = new UserGetNoTokenDTO(1L, "Firstname Lastname", "firstname@lastname",
+                UserStatus.OFFLINE, null, null);
+
+        given(userService.getUserSummaries()).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users").accept("application/cbor");
+
+        // then
+        byte[] body = mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/cbor"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        UserGetNoTokenDTO[] users = new ObjectMapper(new CBORFactory()).readValue(body, UserGetNoTokenDTO[].class);
+        assertEquals(1, users.length);
+        assertEquals(user.getUsername(), users[0].getUsername());
+        assertEquals(user.getStatus(), users[0].getStatus());
+    }
+
+    @Test
+    public void givenUsers_whenStreamUsers_thenReturnJsonArray() throws Exception {
+        // given
+        UserGetNoTokenDTO first = new UserGetNoTokenDTO(1L, "Firstname Lastname", "firstname@lastname",
+                UserStatus.OFFLINE, LocalDateTime.of(2021, 1, 1, 12, 0), null);
+        UserGetNoTokenDTO second = new UserGetNoTokenDTO(2L, "Other Name", "other@name",
+                UserStatus.ONLINE, null, null);
+
+        given(userService.getUsersVersion()).willReturn("2-2-2-0");
+        Mockito.doAnswer(invocation -> {
+            Consumer<UserGetNoTokenDTO> consumer = invocation.getArgument(0);
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(userService).streamUserSummaries(Mockito.any());
+
+        // when -> the users are written after the handler returned
+        MvcResult result = mockMvc.perform(get("/users?stream=true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // then
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"2-2-2-0\""))
+                .andExpect(header().string("X-Sync-Cursor", "epoch-0"))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].username", is(first.getUsername())))
+                .andExpect(jsonPath("$[0].creationDate", is("01-01-2021 12:00:00")))
+                .andExpect(jsonPath("$[1].status", is(second.getStatus().toString())));
+
+        Mockito.verify(userService, Mockito.never()).getUserSummaries();
+    }
+
+    @Test
+    public void givenUsers_whenGetUsersPage_thenReturnPageAndCursor() throws Exception {
+        // given
+        UserGetNoTokenDTO user = new UserGetNoTokenDTO(5L, "Firstname Lastname", "firstname@lastname",
+                UserStatus.OFFLINE, null, null);
+
+        given(userService.getUserSummaries(2L, 1)).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users?after=2&limit=1")
+                .contentType(MediaType.APPLICATION_JSON);
+
+        // then -> the page is full, so the id of its last user is the cursor for the next page
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(5)))
+                .andExpect(header().string("X-Next-Cursor", "5"));
+    }
+
+
+    @Test
+    public void givenChanges_whenGetChanges_thenReturnChangedUsersAndCursor() throws Exception {
+        // given
+        User user = new User();
+        user.setId(5L);
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.ONLINE);
+
+        given(userService.getChangeCursor()).willReturn("epoch-12");
+        given(userService.getUsersChangedSince("epoch-10")).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/changes?since=epoch-10")
+                .contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$.cursor", is("epoch-12")))
+                .andExpect(jsonPath("$.users", hasSize(1)))
+                .andExpect(jsonPath("$.users[0].id", is(5)));
+    }
+
+    @Test
+    public void givenOldCursor_whenGetChanges_thenGone() throws Exception {
+        given(userService.getUsersChangedSince("epoch-1")).willThrow(new ResponseStatusException(HttpStatus.GONE));
+
+        mockMvc.perform(get("/users/changes?since=epoch-1")).andExpect(status().isGone());
+    }
+
+    @Test
+    public void givenMatchingUsers_whenSearchUsers_thenReturnMatches() throws Exception {
+        // given
+        UserGetNoTokenDTO user = new UserGetNoTokenDTO(5L, "Firstname Lastname", "firstname@lastname",
+                UserStatus.ONLINE, null, null);
+
+        given(userService.searchUsers("lastn", 5, true)).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/search?q=lastn&limit=5&fuzzy=true")
+                .contentType(MediaType.APPLICATION_JSON);
+
+        // then
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].username", is(user.getUsername())))
+                .andExpect(jsonPath("$[0].token").doesNotExist());
     }
 
 
     /*
         Tests for POST Mappings
      */
+    @Test
+    public void givenActiveSession_whenHeartbeat_thenNoContent() throws Exception {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setToken("testToken");
+
+        mockMvc.perform(post("/users/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO)))
+                .andExpect(status().isNoContent());
+
+        Mockito.verify(userService).heartbeat("testToken");
+    }
+
+    @Test
+    public void givenExpiredSession_whenHeartbeat_thenUnauthorized() throws Exception {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setToken("testToken");
+        doThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED)).when(userService).heartbeat("testToken");
+
+        mockMvc.perform(post("/users/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPostDTO)))
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     public void createUser_invalidInput_errorThrown() throws Exception {
         // given
@@ -218,6 +574,38 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.location", is("/users/" + user.getId())));
     }
 
+    @Test
+    public void createUsers_batch_returnsResultPerUser() throws Exception {
+        // given
+        UserPostDTO valid = new UserPostDTO();
+        valid.setName("Test User");
+        valid.setUsername("testUsername");
+        valid.setPassword("123");
+
+        UserPostDTO conflicting = new UserPostDTO();
+        conflicting.setName("Other User");
+        conflicting.setUsername("testUsername");
+        conflicting.setPassword("123");
+
+        given(userService.createUsers(Mockito.any())).willAnswer(invocation -> {
+            List<User> users = invocation.getArgument(0);
+            users.get(0).setId(1L);
+            return Collections.singletonMap(1, "The username provided is not unique.");
+        });
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(Arrays.asList(valid, conflicting)));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].location", is("/users/1")))
+                .andExpect(jsonPath("$[1].error", is("The username provided is not unique.")));
+    }
+
     /**
      * Helper Method to convert userPostDTO into a JSON string such that the input can be processed
      * Input will look like this: {"name": "Test User", "username": "testUsername"}
@@ -0,0 +1,106 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the bulk updates of the UserRepo evict only the updated users from the second-level cache.
+ * Every step commits, since Hibernate does not cache users that were inserted in the same transaction.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class UserRepoCacheTest {
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Cache cache;
+
+    private User updated;
+
+    private User other;
+
+    @BeforeEach
+    public void setup() {
+        cache = entityManagerFactory.getCache();
+        updated = userRepo.save(newUser("updated"));
+        other = userRepo.save(newUser("other"));
+
+        // loading the users again keeps them in the second-level cache
+        cache.evictAll();
+        userRepo.findById(updated.getId());
+        userRepo.findById(other.getId());
+        assertTrue(cache.contains(User.class, updated.getId()));
+        assertTrue(cache.contains(User.class, other.getId()));
+    }
+
+    @AfterEach
+    public void cleanup() {
+        userRepo.deleteAll();
+    }
+
+    @Test
+    public void updateStatus_onlyUpdatedUserEvicted() {
+        Integer count = new TransactionTemplate(transactionManager)
+                .execute(status -> userRepo.updateStatus(Collections.singletonList(updated.getId()), UserStatus.OFFLINE));
+
+        assertEquals(1, count);
+        assertFalse(cache.contains(User.class, updated.getId()));
+        assertTrue(cache.contains(User.class, other.getId()));
+
+        User found = userRepo.findById(updated.getId()).orElseThrow();
+        assertEquals(UserStatus.OFFLINE, found.getStatus());
+        // status changes do not change the version, so If-Match of a profile update still matches
+        assertEquals(updated.getVersion(), found.getVersion());
+    }
+
+    @Test
+    public void updateUser_newUsername_cachedLookupInvalidated() {
+        // the lookup is kept in the query cache
+        assertNotNull(userRepo.findByUsername("updated"));
+
+        Integer count = new TransactionTemplate(transactionManager).execute(status ->
+                userRepo.updateUser(updated.getId(), "renamed", null, Collections.singletonList(updated.getVersion())));
+
+        assertEquals(1, count);
+        assertFalse(cache.contains(User.class, updated.getId()));
+        assertTrue(cache.contains(User.class, other.getId()));
+        assertNull(userRepo.findByUsername("updated"));
+        assertEquals(updated.getId(), userRepo.findByUsername("renamed").getId());
+    }
+
+    private static User newUser(String username) {
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername(username);
+        user.setPassword("123");
+        user.setCreationDate(LocalDateTime.now());
+        user.setStatus(UserStatus.ONLINE);
+        user.setToken(username + "Token");
+        return user;
+    }
+}
@@ -2,17 +2,19 @@ package ch.uzh.ifi.hase.soprafs21.repository;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.logging.SimpleFormatter;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.*;
 
 @DataJpaTest
 public class UserRepoIntegrationTest {
@@ -31,7 +33,7 @@ public class UserRepoIntegrationTest {
         user.setUsername("firstname@lastname");
         /* Modified for UserStory 1 */
         user.setPassword("123");
-        user.setCreationDate(new SimpleDateFormat("dd-MM-yyyy HH:mm:ss").format(new Date()));
+        user.setCreationDate(LocalDateTime.now());
         /* */
 
         user.setStatus(UserStatus.ONLINE);
@@ -50,4 +52,62 @@ public class UserRepoIntegrationTest {
         assertEquals(found.getToken(), user.getToken());
         assertEquals(found.getStatus(), user.getStatus());
     }
+
+    @Test
+    public void findSummariesByIdGreaterThan_returnsDTOsWithoutLoadingEntities() {
+        // given
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setPassword("123");
+        user.setCreationDate(LocalDateTime.of(2021, 3, 1, 8, 30));
+        user.setBirthDate("01.01.2000");
+        user.setStatus(UserStatus.ONLINE);
+        user.setToken("1");
+
+        entityManager.persist(user);
+        entityManager.flush();
+        entityManager.clear();
+
+        // when
+        List<UserGetNoTokenDTO> found = userRepo.findSummariesByIdGreaterThan(0L, PageRequest.of(0, 10));
+
+        // then
+        assertEquals(1, found.size());
+        assertEquals(user.getId(), found.get(0).getId());
+        assertEquals(user.getName(), found.get(0).getName());
+        assertEquals(user.getUsername(), found.get(0).getUsername());
+        assertEquals(user.getStatus(), found.get(0).getStatus());
+        assertEquals("01-03-2021 08:30:00", found.get(0).getCreationDate());
+        assertEquals(user.getBirthDate(), found.get(0).getBirthDate());
+
+        // the persistence context stays empty
+        SessionImplementor session = entityManager.getEntityManager().unwrap(SessionImplementor.class);
+        assertEquals(0, session.getPersistenceContext().getNumberOfManagedEntities());
+    }
+
+    @Test
+    public void updateUser_otherVersion_notUpdated() {
+        // given
+        User user = persistUser("user", UserStatus.ONLINE);
+
+        // when
+        int count = userRepo.updateUser(user.getId(), "renamed", null, Collections.singletonList(user.getVersion() + 1));
+
+        // then
+        assertEquals(0, count);
+        entityManager.clear();
+        assertEquals("user", entityManager.find(User.class, user.getId()).getUsername());
+    }
+
+    private User persistUser(String username, UserStatus status) {
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername(username);
+        user.setPassword("123");
+        user.setCreationDate(LocalDateTime.now());
+        user.setStatus(status);
+        user.setToken(username + "Token");
+        return entityManager.persistFlushFind(user);
+    }
 }
@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Runs the Flyway migrations of the persistent profile and lets Hibernate validate the User entity against them,
+ * so the migrations cannot get out of sync with the entity.
+ */
+@DataJpaTest(properties = {"spring.flyway.enabled=true", "spring.jpa.hibernate.ddl-auto=validate"})
+public class UserRepoMigrationTest {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Test
+    public void migratedSchema_persistAndFind_success() {
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setPassword("123");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        user.setCreationDate(LocalDateTime.now());
+
+        entityManager.persist(user);
+        entityManager.flush();
+
+        User found = userRepo.findByUsername(user.getUsername());
+
+        assertNotNull(found.getId());
+        assertEquals(user.getName(), found.getName());
+    }
+}
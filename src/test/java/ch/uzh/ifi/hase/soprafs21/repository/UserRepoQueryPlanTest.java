@@ -0,0 +1,168 @@
+package ch.uzh.ifi.hase.soprafs21.repository;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import org.hibernate.Session;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks with EXPLAIN that every UserRepo query that filters users is answered with an index.
+ * The SQL that Hibernate generates for the repo method is captured and explained, with all parameters set to null;
+ * a query that would fall back to a table scan fails the test.
+ * Queries that read the whole table on purpose (findAll, findAllSummaries, streamAllSearchTerms, findTableVersion)
+ * are not checked.
+ */
+@DataJpaTest
+public class UserRepoQueryPlanTest {
+
+    private static final List<String> STATEMENTS = Collections.synchronizedList(new ArrayList<>());
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepo userRepo;
+
+    @TestConfiguration
+    static class StatementCaptureConfig {
+
+        // keeps any statement inspector that is configured already
+        @Bean
+        public HibernatePropertiesCustomizer statementCaptureCustomizer() {
+            return properties -> {
+                Object configured = properties.get(AvailableSettings.STATEMENT_INSPECTOR);
+                StatementInspector capture = sql -> {
+                    String inspected = configured instanceof StatementInspector ? ((StatementInspector) configured).inspect(sql) : sql;
+                    STATEMENTS.add(inspected);
+                    return inspected;
+                };
+                properties.put(AvailableSettings.STATEMENT_INSPECTOR, capture);
+            };
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        // some rows, so H2 estimates realistic costs
+        for (int i = 0; i < 100; i++) {
+            User user = new User();
+            user.setName("name" + i);
+            user.setUsername("username" + i);
+            user.setPassword("123");
+            user.setToken("token" + i);
+            user.setStatus(i % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+            user.setCreationDate(LocalDateTime.now());
+            entityManager.persist(user);
+        }
+        entityManager.flush();
+    }
+
+    @Test
+    public void findById_usesIndex() {
+        assertIndexUsed(() -> userRepo.findById(1L));
+    }
+
+    @Test
+    public void findByUsername_usesIndex() {
+        assertIndexUsed(() -> userRepo.findByUsername("username1"));
+    }
+
+    @Test
+    public void findByToken_usesIndex() {
+        assertIndexUsed(() -> userRepo.findByToken("token1"));
+    }
+
+    @Test
+    public void findByName_usesIndex() {
+        assertIndexUsed(() -> userRepo.findByName("name1"));
+    }
+
+    @Test
+    public void findIdsByStatus_usesIndex() {
+        assertIndexUsed(() -> userRepo.findIdsByStatus(UserStatus.ONLINE));
+    }
+
+    @Test
+    public void findSummariesByIdGreaterThan_usesIndex() {
+        assertIndexUsed(() -> userRepo.findSummariesByIdGreaterThan(10L, PageRequest.of(0, 20)));
+    }
+
+    @Test
+    public void findSummariesByIdIn_usesIndex() {
+        assertIndexUsed(() -> userRepo.findSummariesByIdIn(Arrays.asList(1L, 2L, 3L)));
+    }
+
+    @Test
+    public void findExistingUsernamesAndNames_useIndex() {
+        assertIndexUsed(() -> userRepo.findExistingUsernames(Arrays.asList("username1", "username2")));
+        assertIndexUsed(() -> userRepo.findExistingNames(Arrays.asList("name1", "name2")));
+    }
+
+    @Test
+    public void updateStatus_usesIndex() {
+        assertIndexUsed(() -> userRepo.updateStatus(Arrays.asList(1L, 2L, 3L), UserStatus.OFFLINE));
+    }
+
+    @Test
+    public void updateUser_usesIndex() {
+        assertIndexUsed(() -> userRepo.updateUser(1L, "newUsername", null, Collections.singletonList(0L)));
+    }
+
+    /**
+     * Runs a repo method and explains every statement it sent to the database
+     * @param repoCall calls the repo method
+     */
+    private void assertIndexUsed(Runnable repoCall) {
+        // neither the persistence context nor the second-level or query cache may answer the call
+        entityManager.clear();
+        entityManager.getEntityManager().getEntityManagerFactory().getCache().evictAll();
+        STATEMENTS.clear();
+
+        repoCall.run();
+
+        List<String> statements = new ArrayList<>(STATEMENTS);
+        assertFalse(statements.isEmpty(), "No statement was sent to the database");
+        for (String sql : statements) {
+            String plan = explain(sql);
+            assertFalse(plan.contains("tableScan"), "Table scan for: " + sql + "\n" + plan);
+        }
+    }
+
+    private String explain(String sql) {
+        return entityManager.getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+                int parameters = explain.getParameterMetaData().getParameterCount();
+                for (int i = 1; i <= parameters; i++) {
+                    explain.setNull(i, Types.NULL);
+                }
+                try (ResultSet plan = explain.executeQuery()) {
+                    plan.next();
+                    return plan.getString(1);
+                }
+            }
+        });
+    }
+}
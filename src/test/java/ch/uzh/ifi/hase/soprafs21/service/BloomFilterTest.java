@@ -0,0 +1,43 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    public void mightContain_addedValues_alwaysTrue() {
+        BloomFilter bloomFilter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bloomFilter.put("user" + i);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(bloomFilter.mightContain("user" + i));
+        }
+    }
+
+    @Test
+    public void mightContain_otherValues_falsePositivesNearExpectedProbability() {
+        BloomFilter bloomFilter = new BloomFilter(10000, 0.01);
+        assertEquals(0.0, bloomFilter.getFalsePositiveProbability());
+        assertFalse(bloomFilter.mightContain("user0"));
+
+        for (int i = 0; i < 10000; i++) {
+            bloomFilter.put("user" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (bloomFilter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+        assertEquals(0.01, bloomFilter.getFalsePositiveProbability(), 0.005);
+
+        // about 1.2 bytes per value instead of the strings themselves
+        assertTrue(bloomFilter.getSizeInBytes() < 13000);
+    }
+}
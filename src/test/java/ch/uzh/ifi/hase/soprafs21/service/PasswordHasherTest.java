@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+    private PasswordHasher passwordHasher;
+
+    @BeforeEach
+    public void setup() {
+        // low cost factor to keep the tests fast
+        passwordHasher = new PasswordHasher(1000, 2, 16);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    public void hash_thenVerify_success() {
+        String hash = passwordHasher.hash("123");
+
+        assertTrue(passwordHasher.isHashed(hash));
+        assertNotEquals("123", hash);
+        assertTrue(passwordHasher.verify("123", hash));
+        assertFalse(passwordHasher.verify("1234", hash));
+    }
+
+    @Test
+    public void hash_samePassword_differentSalt() {
+        assertNotEquals(passwordHasher.hash("123"), passwordHasher.hash("123"));
+    }
+
+    @Test
+    public void hashAll_keepsOrder() {
+        List<String> hashes = passwordHasher.hashAll(Arrays.asList("a", "b", "c", "d", "e"));
+
+        assertEquals(5, hashes.size());
+        assertTrue(passwordHasher.verify("a", hashes.get(0)));
+        assertTrue(passwordHasher.verify("e", hashes.get(4)));
+    }
+
+    @Test
+    public void legacyPlainText_verifiedAndNeedsRehash() {
+        assertTrue(passwordHasher.verify("123", "123"));
+        assertFalse(passwordHasher.verify("123", "1234"));
+        assertTrue(passwordHasher.needsRehash("123"));
+    }
+
+    @Test
+    public void otherCostFactor_needsRehash() {
+        PasswordHasher cheaper = new PasswordHasher(500, 1, 4);
+        String hash = cheaper.hash("123");
+        cheaper.shutdown();
+
+        // still valid, but hashed with an outdated cost factor
+        assertTrue(passwordHasher.verify("123", hash));
+        assertTrue(passwordHasher.needsRehash(hash));
+        assertFalse(passwordHasher.needsRehash(passwordHasher.hash("123")));
+    }
+}
@@ -0,0 +1,150 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceServiceTest {
+
+    // queues of 2 events per subscriber, 2 sender threads; the tests dispatch themselves
+    private final PresenceService presenceService = new PresenceService(60000, 10, 2, 2, TimeUnit.HOURS.toMillis(1));
+
+    @AfterEach
+    public void shutdown() {
+        presenceService.shutdown();
+    }
+
+    @Test
+    public void onStatusChanged_slowSubscriber_disconnectedWithoutDelayingOthers() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        RecordingEmitter slow = new RecordingEmitter(10, blocked);
+        RecordingEmitter fast = new RecordingEmitter(4, new CountDownLatch(0));
+        presenceService.register(slow);
+        presenceService.register(fast);
+
+        // the slow client takes one event and never finishes sending it; its queue overflows,
+        // while the fast client keeps up
+        for (long id = 1; id <= 4; id++) {
+            presenceService.onStatusChanged(new UserStatusChangedEvent(id, UserStatus.ONLINE));
+            presenceService.dispatch();
+            fast.awaitChanges((int) id);
+        }
+
+        assertTrue(fast.sent.await(5, TimeUnit.SECONDS));
+        assertEquals(1, presenceService.getSubscriberCount());
+        blocked.countDown();
+    }
+
+    @Test
+    public void dispatch_burstOfChanges_oneEventWithLatestStatusPerUser() throws Exception {
+        RecordingEmitter first = new RecordingEmitter(1, new CountDownLatch(0));
+        RecordingEmitter second = new RecordingEmitter(1, new CountDownLatch(0));
+        presenceService.register(first);
+        presenceService.register(second);
+
+        // far more changes than fit into the queue of a subscriber, e.g. many sessions expiring in one tick
+        for (long id = 1; id <= 100; id++) {
+            presenceService.onStatusChanged(new UserStatusChangedEvent(id, UserStatus.ONLINE));
+        }
+        presenceService.onStatusChanged(new UserStatusChangedEvent(1L, UserStatus.OFFLINE));
+        presenceService.dispatch();
+
+        assertTrue(first.sent.await(5, TimeUnit.SECONDS));
+        assertTrue(second.sent.await(5, TimeUnit.SECONDS));
+        assertEquals(2, presenceService.getSubscriberCount());
+
+        List<?> changes = first.changes.get(0);
+        assertEquals(100, changes.size());
+        UserStatusChangedEvent last = (UserStatusChangedEvent) changes.get(99);
+        assertEquals(1L, last.getId());
+        assertEquals(UserStatus.OFFLINE, last.getStatus());
+    }
+
+    @Test
+    public void dispatch_noChanges_nothingSent() {
+        RecordingEmitter subscriber = new RecordingEmitter(1, new CountDownLatch(0));
+        presenceService.register(subscriber);
+
+        presenceService.dispatch();
+
+        assertEquals(1, subscriber.sent.getCount());
+    }
+
+    @Test
+    public void sendKeepAlive_sentToAllSubscribers() throws Exception {
+        RecordingEmitter first = new RecordingEmitter(1, new CountDownLatch(0));
+        RecordingEmitter second = new RecordingEmitter(1, new CountDownLatch(0));
+        presenceService.register(first);
+        presenceService.register(second);
+
+        presenceService.sendKeepAlive();
+
+        assertTrue(first.sent.await(5, TimeUnit.SECONDS));
+        assertTrue(second.sent.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void subscribe_tooManySubscribers_throwsException() {
+        PresenceService limited = new PresenceService(60000, 1, 2, 1, 100);
+        try {
+            limited.subscribe();
+            assertThrows(ResponseStatusException.class, limited::subscribe);
+        }
+        finally {
+            limited.shutdown();
+        }
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final CountDownLatch sent;
+
+        private final CountDownLatch blocked;
+
+        // the lists of changes of the status events sent
+        private final List<List<?>> changes = new CopyOnWriteArrayList<>();
+
+        private RecordingEmitter(int expectedEvents, CountDownLatch blocked) {
+            this.sent = new CountDownLatch(expectedEvents);
+            this.blocked = blocked;
+        }
+
+        private void awaitChanges(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (changes.size() < count) {
+                assertTrue(System.nanoTime() < deadline, "Only " + changes.size() + " events sent");
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            try {
+                blocked.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            for (DataWithMediaType data : builder.build()) {
+                if (MediaType.APPLICATION_JSON.equals(data.getMediaType())) {
+                    changes.add((List<?>) data.getData());
+                }
+            }
+            sent.countDown();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionExpiryTest {
+
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    private SessionExpiry sessionExpiry;
+
+    @BeforeEach
+    public void setup() {
+        // idle timeout 100 ms, absolute timeout 250 ms, ticks of 10 ms
+        sessionExpiry = new SessionExpiry(100, 250, 10, now::get, null);
+    }
+
+    @Test
+    public void poll_idleSession_expires() {
+        sessionExpiry.start(1L);
+
+        now.addAndGet(90);
+        assertTrue(sessionExpiry.poll().isEmpty());
+
+        now.addAndGet(10);
+        assertEquals(Collections.singletonList(1L), sessionExpiry.poll());
+        assertFalse(sessionExpiry.isActive(1L));
+        assertFalse(sessionExpiry.touch(1L));
+    }
+
+    @Test
+    public void poll_heartbeat_keepsSessionUntilAbsoluteTimeout() {
+        sessionExpiry.start(1L);
+
+        // a heartbeat every 50 ms
+        for (int i = 0; i < 4; i++) {
+            now.addAndGet(50);
+            assertTrue(sessionExpiry.touch(1L));
+            assertTrue(sessionExpiry.poll().isEmpty());
+        }
+
+        now.addAndGet(50);
+        assertTrue(sessionExpiry.touch(1L));
+        assertEquals(Collections.singletonList(1L), sessionExpiry.poll());
+    }
+
+    @Test
+    public void poll_endedSession_notExpired() {
+        sessionExpiry.start(1L);
+        sessionExpiry.end(1L);
+
+        now.addAndGet(1000);
+        assertTrue(sessionExpiry.poll().isEmpty());
+    }
+
+    @Test
+    public void poll_newLogin_replacesOldSession() {
+        sessionExpiry.start(1L);
+        now.addAndGet(60);
+        sessionExpiry.start(1L);
+
+        // the first session would have expired now
+        now.addAndGet(40);
+        assertTrue(sessionExpiry.poll().isEmpty());
+
+        now.addAndGet(60);
+        assertEquals(Collections.singletonList(1L), sessionExpiry.poll());
+    }
+
+    @Test
+    public void expire_sessionRestartedAfterPoll_leftOut() {
+        sessionExpiry.start(1L);
+        sessionExpiry.start(2L);
+        now.addAndGet(100);
+        List<Long> expiredIDs = sessionExpiry.poll();
+        assertEquals(2, expiredIDs.size());
+
+        // user 1 logs in again before the users are set OFFLINE
+        sessionExpiry.start(1L);
+
+        List<Long> updated = new ArrayList<>();
+        sessionExpiry.expire(expiredIDs, updated::addAll);
+        assertEquals(Collections.singletonList(2L), updated);
+        assertTrue(sessionExpiry.isActive(1L));
+
+        // nothing to update once all of them logged in again
+        sessionExpiry.start(2L);
+        sessionExpiry.expire(Arrays.asList(1L, 2L), ids -> fail("no user to update"));
+    }
+
+    @Test
+    public void poll_longPause_expiresAllSessionsOnce() {
+        for (long id = 1; id <= 1000; id++) {
+            sessionExpiry.start(id);
+        }
+
+        now.addAndGet(100000);
+        assertEquals(1000, sessionExpiry.poll().size());
+        assertEquals(0, sessionExpiry.size());
+    }
+}
@@ -0,0 +1,93 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatusWriteBehindTest {
+
+    private final UserRepo userRepo = Mockito.mock(UserRepo.class);
+
+    private StatusWriteBehind statusWriteBehind;
+
+    @BeforeEach
+    public void setup() {
+        // at most 2 users per UPDATE
+        statusWriteBehind = new StatusWriteBehind(2, userRepo, Mockito.mock(PlatformTransactionManager.class));
+        Mockito.when(userRepo.updateStatus(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).size());
+    }
+
+    @Test
+    public void record_notWrittenUntilFlush() {
+        statusWriteBehind.record(1L, UserStatus.ONLINE);
+        statusWriteBehind.record(1L, UserStatus.OFFLINE);
+
+        Mockito.verifyNoInteractions(userRepo);
+        assertEquals(UserStatus.OFFLINE, statusWriteBehind.getPendingStatus(1L));
+        assertEquals(2, statusWriteBehind.getChangeCount());
+
+        // only the last status of a user is written
+        statusWriteBehind.flush();
+        Mockito.verify(userRepo, Mockito.times(1)).updateStatus(Mockito.any(), Mockito.any());
+        Mockito.verify(userRepo).updateStatus(Collections.singletonList(1L), UserStatus.OFFLINE);
+        assertNull(statusWriteBehind.getPendingStatus(1L));
+    }
+
+    @Test
+    public void flush_onePerStatusAndBatch() {
+        for (long id = 1; id <= 3; id++) {
+            statusWriteBehind.record(id, UserStatus.ONLINE);
+        }
+        statusWriteBehind.record(4L, UserStatus.OFFLINE);
+
+        statusWriteBehind.flush();
+
+        Mockito.verify(userRepo, Mockito.times(2)).updateStatus(Mockito.any(), Mockito.eq(UserStatus.ONLINE));
+        Mockito.verify(userRepo).updateStatus(Collections.singletonList(4L), UserStatus.OFFLINE);
+        assertEquals(0, statusWriteBehind.getPendingCount());
+
+        // nothing left to write
+        statusWriteBehind.flush();
+        Mockito.verify(userRepo, Mockito.times(3)).updateStatus(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void flush_statusChangedWhileWriting_staysPending() {
+        statusWriteBehind.record(1L, UserStatus.ONLINE);
+        statusWriteBehind.record(2L, UserStatus.ONLINE);
+        Mockito.doAnswer(invocation -> {
+            // user 1 logs out while its login is written
+            statusWriteBehind.record(1L, UserStatus.OFFLINE);
+            return 2;
+        }).when(userRepo).updateStatus(Mockito.any(), Mockito.eq(UserStatus.ONLINE));
+
+        statusWriteBehind.flush();
+
+        assertEquals(UserStatus.OFFLINE, statusWriteBehind.getPendingStatus(1L));
+        assertNull(statusWriteBehind.getPendingStatus(2L));
+    }
+
+    @Test
+    public void flush_failedUpdate_keptForNextFlush() {
+        statusWriteBehind.record(1L, UserStatus.ONLINE);
+        Mockito.doThrow(new IllegalStateException("connection lost")).when(userRepo).updateStatus(Mockito.any(), Mockito.any());
+
+        assertThrows(IllegalStateException.class, () -> statusWriteBehind.flush());
+        assertEquals(UserStatus.ONLINE, statusWriteBehind.getPendingStatus(1L));
+
+        Mockito.reset(userRepo);
+        statusWriteBehind.drain();
+        Mockito.verify(userRepo).updateStatus(Arrays.asList(1L), UserStatus.ONLINE);
+        assertEquals(0, statusWriteBehind.getPendingCount());
+    }
+}
@@ -0,0 +1,82 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs21.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void get_cachedToken_notLoadedAgain() {
+        TokenCache tokenCache = new TokenCache(10);
+
+        assertEquals(1L, tokenCache.get("token1", load(1L, UserStatus.ONLINE)).getId());
+        assertEquals(UserStatus.ONLINE, tokenCache.get("token1", load(1L, UserStatus.ONLINE)).getStatus());
+        assertEquals(1, loads.get());
+
+        // unknown tokens are not cached
+        assertNull(tokenCache.get("unknown", token -> null));
+        assertEquals(1, tokenCache.size());
+    }
+
+    @Test
+    public void invalidate_statusChanged_loadedAgain() {
+        TokenCache tokenCache = new TokenCache(10);
+        tokenCache.get("token1", load(1L, UserStatus.ONLINE));
+
+        tokenCache.invalidate(1L);
+
+        assertEquals(UserStatus.OFFLINE, tokenCache.get("token1", load(1L, UserStatus.OFFLINE)).getStatus());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void get_statusChangedWhileLoading_notCached() {
+        TokenCache tokenCache = new TokenCache(10);
+
+        // the user logs out while its old state is loaded
+        tokenCache.get("token1", token -> {
+            tokenCache.invalidate(1L);
+            return load(1L, UserStatus.ONLINE).apply(token);
+        });
+
+        assertEquals(0, tokenCache.size());
+    }
+
+    @Test
+    public void get_full_dropsUnusedTokensFirst() {
+        TokenCache tokenCache = new TokenCache(3);
+        for (long id = 1; id <= 3; id++) {
+            tokenCache.get("token" + id, load(id, UserStatus.ONLINE));
+        }
+        // token1 was used again, so token2 is dropped instead
+        tokenCache.get("token1", load(1L, UserStatus.ONLINE));
+        tokenCache.get("token4", load(4L, UserStatus.ONLINE));
+
+        assertEquals(3, tokenCache.size());
+        int loadsBefore = loads.get();
+        tokenCache.get("token1", load(1L, UserStatus.ONLINE));
+        assertEquals(loadsBefore, loads.get());
+        tokenCache.get("token2", load(2L, UserStatus.ONLINE));
+        assertEquals(loadsBefore + 1, loads.get());
+        assertEquals(3, tokenCache.size());
+    }
+
+    private Function<String, User> load(long id, UserStatus status) {
+        return token -> {
+            loads.incrementAndGet();
+            User user = new User();
+            user.setId(id);
+            user.setToken(token);
+            user.setStatus(status);
+            return user;
+        };
+    }
+}
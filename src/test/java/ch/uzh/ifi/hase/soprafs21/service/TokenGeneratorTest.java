@@ -0,0 +1,29 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenGeneratorTest {
+
+    @Test
+    public void nextToken_randomUUIDFormat() {
+        UUID token = UUID.fromString(TokenGenerator.nextToken());
+
+        assertEquals(4, token.version());
+        assertEquals(2, token.variant());
+    }
+
+    @Test
+    public void nextToken_unique() {
+        // more tokens than one refill of the buffer
+        Set<String> tokens = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(tokens.add(TokenGenerator.nextToken()));
+        }
+    }
+}
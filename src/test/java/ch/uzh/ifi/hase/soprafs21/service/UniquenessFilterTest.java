@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UniquenessFilterTest {
+
+    private SimpleMeterRegistry registry;
+
+    private UniquenessFilter uniquenessFilter;
+
+    @BeforeEach
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        uniquenessFilter = new UniquenessFilter(1000, 0.01, registry);
+    }
+
+    @Test
+    public void isUsernameTaken_beforeWarmUp_alwaysQueries() {
+        assertFalse(uniquenessFilter.isUsernameTaken("new", username -> false));
+        assertTrue(uniquenessFilter.mightContainName("new"));
+        assertEquals(1.0, registry.counter("uniqueness.filter.checks", "filter", "username", "outcome", "not_filtered").count());
+    }
+
+    @Test
+    public void isUsernameTaken_afterWarmUp_queriesOnlyKnownValues() {
+        uniquenessFilter.add("taken", "Taken Name");
+        uniquenessFilter.completeWarmUp();
+
+        // a username that was never added is not queried
+        assertFalse(uniquenessFilter.isUsernameTaken("new", username -> fail("queried " + username)));
+        assertTrue(uniquenessFilter.isUsernameTaken("taken", username -> true));
+        assertTrue(uniquenessFilter.isNameTaken("Taken Name", name -> true));
+
+        // added before the user is saved
+        uniquenessFilter.add("added", null);
+        assertTrue(uniquenessFilter.mightContainUsername("added"));
+
+        assertEquals(1.0, registry.counter("uniqueness.filter.checks", "filter", "username", "outcome", "skipped").count());
+        assertEquals(1.0, registry.counter("uniqueness.filter.checks", "filter", "username", "outcome", "taken").count());
+        assertTrue(registry.get("uniqueness.filter.memory").tag("filter", "name").gauge().value() > 0);
+    }
+}
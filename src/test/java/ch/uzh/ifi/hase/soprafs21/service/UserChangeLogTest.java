@@ -0,0 +1,46 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserChangeLogTest {
+
+    @Test
+    public void getChangedSince_returnsEachChangedUserOnce() {
+        UserChangeLog userChangeLog = new UserChangeLog(10);
+        userChangeLog.append(1L);
+        long cursor = userChangeLog.getCursor();
+
+        userChangeLog.append(2L);
+        userChangeLog.append(3L);
+        userChangeLog.append(2L);
+
+        Set<Long> changed = userChangeLog.getChangedSince(cursor);
+
+        assertEquals(Arrays.asList(2L, 3L), Arrays.asList(changed.toArray()));
+        assertTrue(userChangeLog.getChangedSince(userChangeLog.getCursor()).isEmpty());
+    }
+
+    @Test
+    public void getChangedSince_overwrittenChanges_returnsNull() {
+        UserChangeLog userChangeLog = new UserChangeLog(3);
+        for (long id = 1; id <= 5; id++) {
+            userChangeLog.append(id);
+        }
+
+        // the first two changes were overwritten
+        assertNull(userChangeLog.getChangedSince(1));
+        assertEquals(3, userChangeLog.getChangedSince(2).size());
+    }
+
+    @Test
+    public void getChangedSince_unknownCursor_throwsException() {
+        UserChangeLog userChangeLog = new UserChangeLog(3);
+
+        assertThrows(IllegalArgumentException.class, () -> userChangeLog.getChangedSince(1));
+    }
+}
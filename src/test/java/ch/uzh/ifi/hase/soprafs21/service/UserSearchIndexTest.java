@@ -0,0 +1,81 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserSearchIndexTest {
+
+    private UserSearchIndex userSearchIndex;
+
+    @BeforeEach
+    public void setup() {
+        userSearchIndex = new UserSearchIndex();
+        userSearchIndex.put(1L, "ada", "Ada Lovelace");
+        userSearchIndex.put(2L, "alan", "Alan Turing");
+        userSearchIndex.put(3L, "grace", "Grace Hopper");
+    }
+
+    @Test
+    public void search_prefixOfUsernameOrNameWord_ignoresCase() {
+        assertEquals(Collections.singletonList(1L), userSearchIndex.search("LOVE", 10, false));
+        assertEquals(Collections.singletonList(2L), userSearchIndex.search("Alan T", 10, false));
+        assertEquals(Arrays.asList(1L, 2L), userSearchIndex.search("a", 10, false));
+        assertTrue(userSearchIndex.search("turong", 10, false).isEmpty());
+    }
+
+    @Test
+    public void search_fuzzy_matchesOneTypo() {
+        // substitution, deletion, insertion and transposition
+        assertEquals(Collections.singletonList(2L), userSearchIndex.search("turong", 10, true));
+        assertEquals(Collections.singletonList(3L), userSearchIndex.search("hoper", 10, true));
+        assertEquals(Collections.singletonList(3L), userSearchIndex.search("gracce", 10, true));
+        assertEquals(Collections.singletonList(1L), userSearchIndex.search("lvoe", 10, true));
+
+        // two typos are too many
+        assertTrue(userSearchIndex.search("tarong", 10, true).isEmpty());
+    }
+
+    @Test
+    public void search_exactMatchesFirstAndLimited() {
+        userSearchIndex.put(4L, "hopper", "Edward Hopper");
+
+        assertEquals(Arrays.asList(3L, 4L), userSearchIndex.search("hopp", 10, true));
+        assertEquals(Collections.singletonList(3L), userSearchIndex.search("hopp", 1, true));
+    }
+
+    @Test
+    public void putIfAbsent_userChangedSinceStartup_keepsNewerTerms() {
+        assertFalse(userSearchIndex.isReady());
+
+        // read from the table at startup, after the user was renamed
+        userSearchIndex.putIfAbsent(2L, "alan", "Alan Turing Old");
+        userSearchIndex.putIfAbsent(5L, "barbara", "Barbara Liskov");
+        userSearchIndex.completeWarmUp();
+
+        assertTrue(userSearchIndex.isReady());
+        assertTrue(userSearchIndex.search("old", 10, false).isEmpty());
+        assertEquals(Collections.singletonList(5L), userSearchIndex.search("liskov", 10, false));
+    }
+
+    @Test
+    public void put_existingUser_replacesOldTerms() {
+        userSearchIndex.put(2L, "alan.t", "Alan Mathison Turing");
+
+        assertTrue(userSearchIndex.search("alan", 10, false).contains(2L));
+        assertEquals(Collections.singletonList(2L), userSearchIndex.search("mathison", 10, false));
+        assertEquals(3, userSearchIndex.size());
+
+        userSearchIndex.put(2L, "turing", "Turing");
+        assertTrue(userSearchIndex.search("alan", 10, false).isEmpty());
+
+        // only the username changed
+        userSearchIndex.put(2L, "enigma", null);
+        assertEquals(Collections.singletonList(2L), userSearchIndex.search("enig", 10, false));
+        assertEquals(Collections.singletonList(2L), userSearchIndex.search("turing", 10, false));
+    }
+}
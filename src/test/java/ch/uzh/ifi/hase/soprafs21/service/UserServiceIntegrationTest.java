@@ -3,14 +3,31 @@ package ch.uzh.ifi.hase.soprafs21.service;
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
 import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -22,6 +39,8 @@ import static org.junit.jupiter.api.Assertions.*;
 @SpringBootTest
 public class UserServiceIntegrationTest {
 
+    private static final int WRITERS = 200;
+
     @Qualifier("userRepository")
     @Autowired
     private UserRepo userRepo;
@@ -29,6 +48,9 @@ public class UserServiceIntegrationTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     public void setup() {
         userRepo.deleteAll();
@@ -82,4 +104,111 @@ public class UserServiceIntegrationTest {
         // check that an error is thrown
         assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
     }
+
+    @Test
+    public void getUser_repeatedReads_servedFromSecondLevelCache() {
+        User testUser = new User();
+        testUser.setName("testName");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("123");
+        User createdUser = userService.createUser(testUser);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // every call runs in its own transaction, so the first-level cache does not help here
+        userService.getUser(createdUser.getId());
+        userService.getUser(createdUser.getId());
+
+        assertTrue(statistics.getSecondLevelCacheHitCount() > 0);
+    }
+
+    @Test
+    public void patchUser_concurrentWritersOnSameVersion_exactlyOneSucceeds() throws Exception {
+        User testUser = new User();
+        testUser.setName("testName");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("123");
+        User createdUser = userService.createUser(testUser);
+        Long version = userService.getUser(createdUser.getId()).getVersion();
+
+        // all writers have seen the same version of the user
+        List<Integer> statuses = runConcurrently(WRITERS, writer -> () ->
+                userService.patchUser(createdUser.getId(), null, "birthday " + writer, Collections.singletonList(version)));
+
+        // the others see the new version, or give up waiting for the lock on the user
+        assertEquals(1, statuses.stream().filter(status -> status == HttpStatus.NO_CONTENT.value()).count());
+        assertEquals(WRITERS - 1, statuses.stream().filter(UserServiceIntegrationTest::isConflict).count());
+        assertEquals(version + 1, userService.getUser(createdUser.getId()).getVersion());
+    }
+
+    @Test
+    public void patchUser_concurrentRenamesToSameUsername_exactlyOneSucceeds() throws Exception {
+        // saved directly, hashing 200 passwords would dominate the test
+        List<User> testUsers = new ArrayList<>();
+        for (int i = 0; i < WRITERS; i++) {
+            User testUser = new User();
+            testUser.setName("testName" + i);
+            testUser.setUsername("testUsername" + i);
+            testUser.setPassword("123");
+            testUser.setToken("token" + i);
+            testUser.setStatus(UserStatus.OFFLINE);
+            testUser.setCreationDate(LocalDateTime.now());
+            testUsers.add(testUser);
+        }
+        List<Long> ids = new ArrayList<>();
+        for (User savedUser : userRepo.saveAll(testUsers)) {
+            ids.add(savedUser.getId());
+        }
+
+        // every user is renamed to the same username at once, without version check
+        List<Integer> statuses = runConcurrently(WRITERS, writer -> () ->
+                userService.patchUser(ids.get(writer), "taken", null, null));
+
+        assertEquals(1, statuses.stream().filter(status -> status == HttpStatus.NO_CONTENT.value()).count());
+        assertEquals(WRITERS - 1, statuses.stream().filter(UserServiceIntegrationTest::isConflict).count());
+        assertNotNull(userRepo.findByUsername("taken"));
+    }
+
+    private static boolean isConflict(int status) {
+        return status == HttpStatus.PRECONDITION_FAILED.value() || status == HttpStatus.CONFLICT.value();
+    }
+
+    /**
+     * Starts all writers at the same time and collects the HTTP status each of them would answer with
+     */
+    private static List<Integer> runConcurrently(int writers, IntFunction<Runnable> writer) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>(writers);
+            for (int i = 0; i < writers; i++) {
+                Runnable write = writer.apply(i);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        write.run();
+                        return HttpStatus.NO_CONTENT.value();
+                    }
+                    catch (ResponseStatusException e) {
+                        return e.getStatus().value();
+                    }
+                    catch (DataIntegrityViolationException | ConcurrencyFailureException e) {
+                        // answered with 409 by the GlobalExceptionAdvice
+                        return HttpStatus.CONFLICT.value();
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<Integer> statuses = new ArrayList<>(writers);
+            for (Future<Integer> result : results) {
+                statuses.add(result.get(30, TimeUnit.SECONDS));
+            }
+            return statuses;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -2,17 +2,38 @@ package ch.uzh.ifi.hase.soprafs21.service;
 
 import ch.uzh.ifi.hase.soprafs21.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs21.entity.User;
+import ch.uzh.ifi.hase.soprafs21.event.UserStatusChangedEvent;
+import ch.uzh.ifi.hase.soprafs21.event.UserUpdatedEvent;
 import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import ch.uzh.ifi.hase.soprafs21.rest.dto.UserGetNoTokenDTO;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -21,6 +42,34 @@ public class UserServiceTest {
     @Mock
     private UserRepo userRepo;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private PasswordHasher passwordHasher;
+
+    @Mock
+    private UserChangeLog userChangeLog;
+
+    @Mock
+    private UserSearchIndex userSearchIndex;
+
+    @Mock
+    private SessionExpiry sessionExpiry;
+
+    @Mock
+    private UniquenessFilter uniquenessFilter;
+
+    @Spy
+    private TokenCache tokenCache = new TokenCache(100);
+
+    @Mock
+    private StatusWriteBehind statusWriteBehind;
+
+    // the transactions of the service do nothing here
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @InjectMocks
     private UserService userService;
 
@@ -37,12 +86,37 @@ public class UserServiceTest {
         testUser.setUsername("testUsername");
         /* Modified for user Story 1 */
         testUser.setPassword("123");
-        testUser.setCreationDate(new SimpleDateFormat("dd-MM-yyyy HH:mm:ss").format(new Date()));
+        testUser.setCreationDate(LocalDateTime.now());
         /* */
 
 
         // when -> any object is being save in the userRepository -> return the dummy testUser
         Mockito.when(userRepo.save(Mockito.any())).thenReturn(testUser);
+        Mockito.when(userRepo.findById(1L)).thenReturn(Optional.of(testUser));
+
+        // the hasher is tested on its own -> compare plain text passwords here
+        // the uniqueness filter cannot rule out anything -> the repo is always queried
+        Mockito.when(uniquenessFilter.mightContainUsername(Mockito.any())).thenReturn(true);
+        Mockito.when(uniquenessFilter.mightContainName(Mockito.any())).thenReturn(true);
+        Mockito.when(uniquenessFilter.isUsernameTaken(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.<Predicate<String>>getArgument(1).test(invocation.getArgument(0)));
+        Mockito.when(uniquenessFilter.isNameTaken(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> invocation.<Predicate<String>>getArgument(1).test(invocation.getArgument(0)));
+
+        Mockito.when(passwordHasher.hash(Mockito.any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(passwordHasher.hashAll(Mockito.any())).thenAnswer(invocation -> invocation.getArgument(0));
+        Mockito.when(passwordHasher.verify(Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> Objects.equals(invocation.getArgument(0), invocation.getArgument(1)));
+
+        // all sessions are active, and expired sessions were not restarted
+        Mockito.when(sessionExpiry.touch(Mockito.anyLong())).thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            invocation.<Consumer<List<Long>>>getArgument(1).accept(invocation.getArgument(0));
+            return null;
+        }).when(sessionExpiry).expire(Mockito.any(), Mockito.any());
+
+        // the search index was filled at startup
+        Mockito.when(userSearchIndex.isReady()).thenReturn(true);
     }
 
     @Test
@@ -92,4 +166,448 @@ public class UserServiceTest {
         // then -> attempt to create second user with same user -> check that an error is thrown
         assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
     }
+
+    @Test
+    public void getUser_existingId_success() {
+        Mockito.when(userRepo.findById(1L)).thenReturn(Optional.of(testUser));
+
+        User fetched = userService.getUser(1L);
+
+        // the user is looked up by its id, the table is never scanned
+        Mockito.verify(userRepo, Mockito.never()).findAll();
+        assertEquals(testUser.getId(), fetched.getId());
+        assertEquals(testUser.getUsername(), fetched.getUsername());
+    }
+
+    @Test
+    public void getUser_unknownId_throwsException() {
+        Mockito.when(userRepo.findById(Mockito.any())).thenReturn(Optional.empty());
+
+        assertThrows(ResponseStatusException.class, () -> userService.getUser(2L));
+    }
+
+    @Test
+    public void checkLoginCredentials_validCredentials_setsOnline() {
+        testUser.setStatus(UserStatus.OFFLINE);
+        Mockito.when(userRepo.findByUsername("testUsername")).thenReturn(testUser);
+
+        User login = new User();
+        login.setUsername("testUsername");
+        login.setPassword("123");
+
+        User loggedIn = userService.checkLoginCredentials(login);
+
+        // the password is verified after the lookup committed
+        InOrder inOrder = Mockito.inOrder(transactionManager, userRepo, passwordHasher, statusWriteBehind);
+        inOrder.verify(userRepo).findByUsername("testUsername");
+        inOrder.verify(transactionManager).commit(Mockito.any());
+        inOrder.verify(passwordHasher).verify("123", "123");
+        inOrder.verify(statusWriteBehind).record(1L, UserStatus.ONLINE);
+
+        // the status change is written later by the write-behind, the login does not start a write transaction
+        Mockito.verify(transactionManager, Mockito.times(1)).getTransaction(Mockito.any());
+        Mockito.verify(userRepo, Mockito.never()).findAll();
+        Mockito.verify(userRepo, Mockito.never()).flush();
+        Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(UserStatusChangedEvent.class));
+        assertEquals(UserStatus.ONLINE, loggedIn.getStatus());
+    }
+
+    @Test
+    public void checkLoginCredentials_alreadyOnline_restartsSession() {
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(userRepo.findByUsername("testUsername")).thenReturn(testUser);
+
+        User login = new User();
+        login.setUsername("testUsername");
+        login.setPassword("123");
+
+        User loggedIn = userService.checkLoginCredentials(login);
+
+        Mockito.verify(userRepo, Mockito.never()).save(Mockito.any());
+        Mockito.verify(userRepo, Mockito.never()).flush();
+        Mockito.verify(sessionExpiry).start(1L);
+        Mockito.verify(statusWriteBehind).record(1L, UserStatus.ONLINE);
+        assertEquals(UserStatus.ONLINE, loggedIn.getStatus());
+    }
+
+    @Test
+    public void checkLoginCredentials_wrongPassword_throwsException() {
+        Mockito.when(userRepo.findByUsername("testUsername")).thenReturn(testUser);
+
+        User login = new User();
+        login.setUsername("testUsername");
+        login.setPassword("wrong");
+
+        assertThrows(ResponseStatusException.class, () -> userService.checkLoginCredentials(login));
+    }
+
+    @Test
+    public void getUserToLogOut_validToken_setsOffline() {
+        testUser.setToken("testToken");
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(userRepo.findByToken("testToken")).thenReturn(testUser);
+
+        User logout = new User();
+        logout.setToken("testToken");
+
+        User loggedOut = userService.getUserToLogOut(logout);
+
+        Mockito.verify(userRepo, Mockito.never()).flush();
+        Mockito.verify(statusWriteBehind).record(1L, UserStatus.OFFLINE);
+        Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(UserStatusChangedEvent.class));
+        assertEquals(UserStatus.OFFLINE, loggedOut.getStatus());
+    }
+
+    @Test
+    public void getUserToLogOut_unknownToken_throwsException() {
+        Mockito.when(userRepo.findByToken(Mockito.any())).thenReturn(null);
+
+        User logout = new User();
+        logout.setToken("unknown");
+
+        assertThrows(ResponseStatusException.class, () -> userService.getUserToLogOut(logout));
+    }
+
+    @Test
+    public void createUsers_someConflicts_othersCreated() {
+        User taken = new User();
+        taken.setName("new name");
+        taken.setUsername("takenUsername");
+        taken.setPassword("123");
+
+        User valid = new User();
+        valid.setName("valid name");
+        valid.setUsername("validUsername");
+        valid.setPassword("123");
+
+        // same username as the valid user earlier in the batch
+        User duplicate = new User();
+        duplicate.setName("other name");
+        duplicate.setUsername("validUsername");
+        duplicate.setPassword("123");
+
+        Mockito.when(userRepo.findExistingUsernames(Mockito.any())).thenReturn(Collections.singletonList("takenUsername"));
+        Mockito.when(userRepo.findExistingNames(Mockito.any())).thenReturn(Collections.emptyList());
+
+        Map<Integer, String> conflicts = userService.createUsers(Arrays.asList(taken, valid, duplicate));
+
+        // uniqueness is checked with one query per column for the whole batch
+        Mockito.verify(userRepo, Mockito.times(1)).findExistingUsernames(Mockito.any());
+        Mockito.verify(userRepo, Mockito.times(1)).findExistingNames(Mockito.any());
+        Mockito.verify(userRepo, Mockito.never()).findByUsername(Mockito.any());
+        Mockito.verify(userRepo, Mockito.times(1)).saveAll(Collections.singletonList(valid));
+
+        assertEquals(2, conflicts.size());
+        assertTrue(conflicts.containsKey(0));
+        assertTrue(conflicts.containsKey(2));
+        assertNotNull(valid.getToken());
+        assertEquals(UserStatus.OFFLINE, valid.getStatus());
+    }
+
+    @Test
+    public void createUsers_registeredConcurrently_conflictAndOthersCreated() {
+        User raced = new User();
+        raced.setName("raced name");
+        raced.setUsername("racedUsername");
+        raced.setPassword("123");
+
+        User valid = new User();
+        valid.setName("valid name");
+        valid.setUsername("validUsername");
+        valid.setPassword("123");
+
+        // the username is free when checked, but taken when the batch is inserted
+        Mockito.when(userRepo.findExistingUsernames(Mockito.any()))
+                .thenReturn(Collections.emptyList())
+                .thenReturn(Collections.singletonList("racedUsername"));
+        Mockito.when(userRepo.findExistingNames(Mockito.any())).thenReturn(Collections.emptyList());
+        Mockito.doAnswer(invocation -> {
+            invocation.<List<User>>getArgument(0).forEach(user -> user.setId(7L));
+            throw new DataIntegrityViolationException("unique constraint");
+        }).doReturn(Collections.singletonList(valid)).when(userRepo).saveAll(Mockito.any());
+
+        Map<Integer, String> conflicts = userService.createUsers(Arrays.asList(raced, valid));
+
+        // only the raced user is reported, the others are inserted again
+        assertEquals(Collections.singleton(0), conflicts.keySet());
+        Mockito.verify(userRepo).saveAll(Collections.singletonList(valid));
+        assertNull(valid.getId());
+    }
+
+    @Test
+    public void createUsers_otherIntegrityViolation_throwsException() {
+        User valid = new User();
+        valid.setName("valid name");
+        valid.setUsername("validUsername");
+        valid.setPassword("123");
+
+        Mockito.when(userRepo.findExistingUsernames(Mockito.any())).thenReturn(Collections.emptyList());
+        Mockito.when(userRepo.findExistingNames(Mockito.any())).thenReturn(Collections.emptyList());
+        Mockito.doThrow(new DataIntegrityViolationException("value too long")).when(userRepo).saveAll(Mockito.any());
+
+        // no user conflicts -> retrying would fail again
+        List<User> users = Collections.singletonList(valid);
+        assertThrows(DataIntegrityViolationException.class, () -> userService.createUsers(users));
+        Mockito.verify(userRepo, Mockito.times(1)).saveAll(Mockito.any());
+    }
+
+    @Test
+    public void createUsers_missingPassword_conflict() {
+        User incomplete = new User();
+        incomplete.setName("name");
+        incomplete.setUsername("username");
+
+        List<User> users = Collections.singletonList(incomplete);
+        Map<Integer, String> conflicts = userService.createUsers(users);
+
+        assertTrue(conflicts.containsKey(0));
+    }
+
+    @Test
+    public void checkLoginCredentials_legacyPassword_rehashed() {
+        testUser.setStatus(UserStatus.OFFLINE);
+        Mockito.when(userRepo.findByUsername("testUsername")).thenReturn(testUser);
+        Mockito.when(passwordHasher.needsRehash("123")).thenReturn(true);
+        Mockito.when(passwordHasher.hash("123")).thenReturn("pbkdf2$1000$salt$hash");
+
+        User login = new User();
+        login.setUsername("testUsername");
+        login.setPassword("123");
+
+        User loggedIn = userService.checkLoginCredentials(login);
+
+        assertEquals("pbkdf2$1000$salt$hash", loggedIn.getPassword());
+    }
+
+    @Test
+    public void updateUser_outdatedVersion_throwsException() {
+        testUser.setVersion(2L);
+        Mockito.when(userRepo.findById(1L)).thenReturn(Optional.of(testUser));
+
+        // the client changed version 1, but the user is in version 2 already
+        assertThrows(ResponseStatusException.class, () -> userService.updateUser(1L, "newUsername", null, Collections.singletonList(1L)));
+        assertEquals("testUsername", testUser.getUsername());
+    }
+
+    @Test
+    public void updateUser_pendingStatus_notWrittenWithChanges() {
+        testUser.setStatus(UserStatus.OFFLINE);
+        Mockito.when(statusWriteBehind.getPendingStatus(1L)).thenReturn(UserStatus.ONLINE);
+
+        userService.updateUser(1L, "newUsername", null, null);
+
+        // the status is left to the write-behind
+        Mockito.verify(userRepo).save(testUser);
+        assertEquals("newUsername", testUser.getUsername());
+        assertEquals(UserStatus.OFFLINE, testUser.getStatus());
+    }
+
+    @Test
+    public void streamUserSummaries_pendingStatus_appliedAndStreamClosed() {
+        UserGetNoTokenDTO first = new UserGetNoTokenDTO(1L, "name1", "username1", UserStatus.OFFLINE, null, null);
+        UserGetNoTokenDTO second = new UserGetNoTokenDTO(2L, "name2", "username2", UserStatus.OFFLINE, null, null);
+        AtomicBoolean closed = new AtomicBoolean();
+        Mockito.when(userRepo.streamAllSummaries()).thenReturn(Stream.of(first, second).onClose(() -> closed.set(true)));
+        Mockito.when(statusWriteBehind.getPendingStatus(2L)).thenReturn(UserStatus.ONLINE);
+
+        List<UserGetNoTokenDTO> streamed = new ArrayList<>();
+        userService.streamUserSummaries(streamed::add);
+
+        assertEquals(Arrays.asList(first, second), streamed);
+        assertEquals(UserStatus.OFFLINE, first.getStatus());
+        assertEquals(UserStatus.ONLINE, second.getStatus());
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void searchUsers_keepsOrderOfIndex() {
+        UserGetNoTokenDTO first = new UserGetNoTokenDTO(2L, "name2", "username2", UserStatus.ONLINE, null, null);
+        UserGetNoTokenDTO second = new UserGetNoTokenDTO(1L, "name1", "username1", UserStatus.OFFLINE, null, null);
+        Mockito.when(userSearchIndex.search("user", 10, false)).thenReturn(Arrays.asList(2L, 1L));
+        Mockito.when(userRepo.findSummariesByIdIn(Arrays.asList(2L, 1L))).thenReturn(Arrays.asList(second, first));
+
+        List<UserGetNoTokenDTO> found = userService.searchUsers("user", 10, false);
+
+        assertEquals(Arrays.asList(first, second), found);
+    }
+
+    @Test
+    public void searchUsers_indexNotReady_throwsServiceUnavailable() {
+        Mockito.when(userSearchIndex.isReady()).thenReturn(false);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.searchUsers("user", 10, false));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatus());
+        Mockito.verify(userSearchIndex, Mockito.never()).search(Mockito.any(), Mockito.anyInt(), Mockito.anyBoolean());
+    }
+
+    @Test
+    public void searchUsers_emptyQuery_throwsException() {
+        assertThrows(ResponseStatusException.class, () -> userService.searchUsers(" ", 10, false));
+        Mockito.verifyNoInteractions(userSearchIndex);
+    }
+
+    @Test
+    public void expireSessions_setsUsersOfflineInWriteBehind() {
+        Mockito.when(sessionExpiry.poll()).thenReturn(Arrays.asList(1L, 2L, 3L));
+
+        userService.expireSessions();
+
+        for (long id = 1; id <= 3; id++) {
+            Mockito.verify(statusWriteBehind).record(id, UserStatus.OFFLINE);
+        }
+        Mockito.verify(userRepo, Mockito.never()).updateStatus(Mockito.any(), Mockito.any());
+        Mockito.verify(userRepo, Mockito.never()).save(Mockito.any());
+        Mockito.verify(eventPublisher, Mockito.times(3)).publishEvent(Mockito.any(UserStatusChangedEvent.class));
+    }
+
+    @Test
+    public void expireSessions_sessionRestarted_userKeptOnline() {
+        Mockito.when(sessionExpiry.poll()).thenReturn(Arrays.asList(1L, 2L));
+        // user 1 logged in again before the update
+        Mockito.doAnswer(invocation -> {
+            invocation.<Consumer<List<Long>>>getArgument(1).accept(Collections.singletonList(2L));
+            return null;
+        }).when(sessionExpiry).expire(Mockito.any(), Mockito.any());
+
+        userService.expireSessions();
+
+        Mockito.verify(statusWriteBehind).record(2L, UserStatus.OFFLINE);
+        Mockito.verify(statusWriteBehind, Mockito.never()).record(1L, UserStatus.OFFLINE);
+        Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(UserStatusChangedEvent.class));
+        Mockito.verify(eventPublisher, Mockito.never())
+                .publishEvent(Mockito.<Object>argThat(event -> event instanceof UserStatusChangedEvent && ((UserStatusChangedEvent) event).getId() == 1L));
+    }
+
+    @Test
+    public void getUsersChangedSince_cursorOfOtherEpoch_throwsGone() {
+        Mockito.when(userChangeLog.getEpoch()).thenReturn("current");
+        Mockito.when(userChangeLog.getCursor()).thenReturn(20L);
+
+        // the log was restarted, position 10 of the old log is not position 10 of this one
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.getUsersChangedSince("old-10"));
+        assertEquals(HttpStatus.GONE, exception.getStatus());
+
+        exception = assertThrows(ResponseStatusException.class, () -> userService.getUsersChangedSince("10"));
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatus());
+        Mockito.verify(userChangeLog, Mockito.never()).getChangedSince(Mockito.anyLong());
+    }
+
+    @Test
+    public void getUsersChangedSince_manyChanges_fetchedInChunks() {
+        Set<Long> changedIDs = new LinkedHashSet<>();
+        for (long id = 1; id <= 2500; id++) {
+            changedIDs.add(id);
+        }
+        Mockito.when(userChangeLog.getEpoch()).thenReturn("current");
+        Mockito.when(userChangeLog.getCursor()).thenReturn(2510L);
+        Mockito.when(userChangeLog.getChangedSince(10L)).thenReturn(changedIDs);
+        Mockito.when(userRepo.findAllById(Mockito.any())).thenReturn(Collections.singletonList(testUser));
+
+        List<User> changed = userService.getUsersChangedSince("current-10");
+
+        Mockito.verify(userRepo, Mockito.times(3)).findAllById(Mockito.any());
+        assertEquals(3, changed.size());
+    }
+
+    @Test
+    public void getUser_statusNotWrittenYet_pendingStatusReturned() {
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(statusWriteBehind.getPendingStatus(1L)).thenReturn(UserStatus.OFFLINE);
+
+        assertEquals(UserStatus.OFFLINE, userService.getUser(1L).getStatus());
+    }
+
+    @Test
+    public void isTokenValid_validToken_touchesSession() {
+        testUser.setToken("testToken");
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(userRepo.findByToken("testToken")).thenReturn(testUser);
+
+        assertTrue(userService.isTokenValid("testToken"));
+        Mockito.verify(sessionExpiry).touch(1L);
+
+        // the session expired, the user is about to be set OFFLINE
+        Mockito.when(sessionExpiry.touch(1L)).thenReturn(false);
+        assertFalse(userService.isTokenValid("testToken"));
+    }
+
+    @Test
+    public void heartbeat_expiredSession_throwsException() {
+        testUser.setToken("testToken");
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(userRepo.findByToken("testToken")).thenReturn(testUser);
+        Mockito.when(sessionExpiry.touch(1L)).thenReturn(false);
+
+        assertThrows(ResponseStatusException.class, () -> userService.heartbeat("testToken"));
+    }
+
+    @Test
+    public void isTokenValid_offlineUser_false() {
+        testUser.setToken("testToken");
+        testUser.setStatus(UserStatus.OFFLINE);
+        Mockito.when(userRepo.findByToken("testToken")).thenReturn(testUser);
+
+        assertFalse(userService.isTokenValid("testToken"));
+    }
+
+    @Test
+    public void isTokenValid_repeatedChecks_answeredByTokenCache() {
+        testUser.setToken("testToken");
+        testUser.setStatus(UserStatus.ONLINE);
+        Mockito.when(userRepo.findByToken("testToken")).thenReturn(testUser);
+
+        assertTrue(userService.isTokenValid("testToken"));
+        assertTrue(userService.isTokenValid("testToken"));
+        Mockito.verify(userRepo, Mockito.times(1)).findByToken("testToken");
+
+        // once the user logs out, the token is checked in the repo again
+        tokenCache.invalidate(1L);
+        testUser.setStatus(UserStatus.OFFLINE);
+        assertFalse(userService.isTokenValid("testToken"));
+        Mockito.verify(userRepo, Mockito.times(2)).findByToken("testToken");
+    }
+
+    @Test
+    public void patchUser_oneUpdateWithoutLoading() {
+        Mockito.when(userRepo.updateUser(1L, "newUsername", null, Collections.singletonList(2L))).thenReturn(1);
+
+        userService.patchUser(1L, "newUsername", null, Collections.singletonList(2L));
+
+        Mockito.verify(userRepo, Mockito.never()).findById(Mockito.any());
+        Mockito.verify(userRepo, Mockito.never()).save(Mockito.any());
+        Mockito.verify(eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(UserUpdatedEvent.class));
+    }
+
+    @Test
+    public void patchUser_outdatedVersion_throwsPreconditionFailed() {
+        Mockito.when(userRepo.updateUser(1L, "newUsername", null, Collections.singletonList(1L))).thenReturn(0);
+        Mockito.when(userRepo.existsById(1L)).thenReturn(true);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.patchUser(1L, "newUsername", null, Collections.singletonList(1L)));
+        assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatus());
+    }
+
+    @Test
+    public void patchUser_unknownUser_throwsNotFound() {
+        Mockito.when(userRepo.updateUser(1L, "newUsername", null, null)).thenReturn(0);
+        Mockito.when(userRepo.existsById(1L)).thenReturn(false);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.patchUser(1L, "newUsername", null, null));
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
+    }
+
+    @Test
+    public void createUser_unseenUsernameAndName_noUniquenessQueries() {
+        Mockito.doReturn(false).when(uniquenessFilter).isUsernameTaken(Mockito.any(), Mockito.any());
+        Mockito.doReturn(false).when(uniquenessFilter).isNameTaken(Mockito.any(), Mockito.any());
+
+        userService.createUser(testUser);
+
+        Mockito.verify(userRepo, Mockito.never()).findByUsername(Mockito.any());
+        Mockito.verify(userRepo, Mockito.never()).findByName(Mockito.any());
+        Mockito.verify(uniquenessFilter).add("testUsername", "testName");
+    }
 }
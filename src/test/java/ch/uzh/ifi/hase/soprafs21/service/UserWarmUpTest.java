@@ -0,0 +1,40 @@
+package ch.uzh.ifi.hase.soprafs21.service;
+
+import ch.uzh.ifi.hase.soprafs21.repository.UserRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserWarmUpTest {
+
+    @Test
+    public void warmUp_oneStreamedPass_fillsIndexAndFilters() {
+        UserRepo userRepo = Mockito.mock(UserRepo.class);
+        AtomicBoolean closed = new AtomicBoolean();
+        Mockito.when(userRepo.streamAllSearchTerms()).thenReturn(Stream.of(
+                new Object[]{1L, "ada", "Ada Lovelace"},
+                new Object[]{2L, "alan", "Alan Turing"}).onClose(() -> closed.set(true)));
+
+        UserSearchIndex userSearchIndex = new UserSearchIndex();
+        UniquenessFilter uniquenessFilter = new UniquenessFilter(1000, 0.01, new SimpleMeterRegistry());
+        UserWarmUp userWarmUp = new UserWarmUp(userRepo, userSearchIndex, uniquenessFilter,
+                Mockito.mock(PlatformTransactionManager.class));
+
+        userWarmUp.warmUp();
+
+        // the table is read once and the result set is closed again
+        Mockito.verify(userRepo, Mockito.times(1)).streamAllSearchTerms();
+        assertTrue(closed.get());
+
+        assertTrue(userSearchIndex.isReady());
+        assertEquals(Collections.singletonList(2L), userSearchIndex.search("turing", 10, false));
+        assertTrue(uniquenessFilter.mightContainUsername("ada"));
+    }
+}